@@ -0,0 +1,27 @@
+package bench;
+
+import data.Dataset;
+import data.PackedDataset;
+import transform.Augment;
+import util.Reader;
+
+/**
+ * UCR datasets of the benchmarks, augmented for the bias as in app.Test.
+ */
+final class Data {
+
+    static final String DIR = System.getProperty("ucr", "./ucr/");
+    static final double BIAS = -0.1;
+
+    private Data() {
+    }
+
+    // name of the file of part TRAIN or TEST of a dataset
+    static String file(String name, String part) {
+        return DIR + "/" + name + "/" + name + "_" + part + ".txt";
+    }
+
+    static Dataset load(String name, String part) {
+        return new Augment(BIAS).transform(new PackedDataset(Reader.loadCSV(file(name, part))));
+    }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import data.Dataset;
+import esmr.Classifier;
+import esmr.MLSR;
+import esmr.WSR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Rand;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One training epoch of WSR and MLSR with the options of app.Test. The loss and error of the epoch are running
+ * estimates ("-E 1"), such that the time excludes an extra evaluation pass over the training set.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FitBench {
+
+    static final String OPTS = " -e 5 -l 0.4 -R 0 -r 0.01 -b1 0.9 -b2 0.99 -T 1 -E 1 -L 0 -o 0 ";
+
+    @Param({"Beef", "Coffee"})
+    String data;
+
+    @Param({"WSR", "MLSR"})
+    String clf;
+
+    Dataset train;
+
+    @Setup
+    public void setup() {
+        train = Data.load(data, "TRAIN");
+    }
+
+    @Benchmark
+    public Classifier epoch() {
+        Rand.setSeed(10);
+        Classifier c = clf.equals("WSR") ? new WSR(OPTS) : new MLSR(OPTS);
+        c.fit(train);
+        return c;
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import data.PackedDataset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Cache;
+import util.Reader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading the training set of a UCR dataset:
+ *      regex       Reader.load() with regular expressions
+ *      parse       Reader.parse() of the memory-mapped file
+ *      cache       Cache.load() of the binary cache file written in the setup
+ *      packed      Cache.load() into a packed dataset
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBench {
+
+    @Param({"Beef", "Coffee"})
+    String data;
+
+    String file;
+
+    @Setup
+    public void setup() {
+        file = Data.file(data, "TRAIN");
+        Cache.load(file, ',');
+    }
+
+    @Benchmark
+    public double[][] regex() {
+        return Reader.load(file, ",");
+    }
+
+    @Benchmark
+    public double[][] parse() {
+        return Reader.parse(file, ',');
+    }
+
+    @Benchmark
+    public double[][] cache() {
+        return Cache.load(file, ',');
+    }
+
+    @Benchmark
+    public PackedDataset packed() {
+        return new PackedDataset(Cache.load(file, ','));
+    }
+}
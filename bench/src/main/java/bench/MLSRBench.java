@@ -0,0 +1,58 @@
+package bench;
+
+import esmr.MLSR;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.Rand;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forward pass of a max-linear softmax regression, i.e. the prediction of one test series, in double and single
+ * precision. The classifier is trained for one epoch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MLSRBench {
+
+    @Param({"Beef", "Coffee"})
+    String data;
+
+    @Param({"1", "5", "20"})
+    int elasticity;
+
+    @Param({"64", "32"})
+    int precision;
+
+    MLSR clf;
+    double[][] X;
+    int next;
+
+    @Setup
+    public void setup() {
+        Rand.setSeed(10);
+        clf = new MLSR("-e " + elasticity + " -p " + precision + " -T 1 -o 0");
+        clf.fit(Data.load(data, "TRAIN"));
+        X = Data.load(data, "TEST").patterns();
+    }
+
+    @Benchmark
+    public int predict() {
+        double[] x = X[next];
+        next = next + 1 < X.length ? next + 1 : 0;
+        return clf.predict(x);
+    }
+}
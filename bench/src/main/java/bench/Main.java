@@ -0,0 +1,31 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, such that allocation rates are reported next to the times. Arguments are
+ * the command line options of JMH, for example a regular expression selecting benchmarks:
+ *
+ *      mvn -B package -DskipTests
+ *      java -jar bench/target/benchmarks.jar WarpedProduct
+ *
+ * The benchmarks read the UCR datasets Beef and Coffee from the directory given by the system property "ucr"
+ * (default ./ucr/), hence they are run from the root of the project.
+ */
+public class Main {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers()
+                || cmd.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        Options opts = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class).build();
+        new Runner(opts).run();
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import esmr.WarpedProduct;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warped product of an m x n matrix and a time series of length n over a grid of elasticities m and lengths n:
+ *      score       static column sweep, allocates its column
+ *      product     product of a workspace without path (column sweep or anti-diagonals for m >= 16)
+ *      warp        product of a workspace with backpointers and optimal path
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WarpedProductBench {
+
+    @Param({"1", "5", "20"})
+    int elasticity;
+
+    @Param({"128", "512"})
+    int length;
+
+    double[] w;
+    double[] x;
+    WarpedProduct P;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1);
+        w = new double[elasticity * length];
+        x = new double[length];
+        for (int i = 0; i < w.length; i++) {
+            w[i] = rand.nextGaussian();
+        }
+        for (int j = 0; j < length; j++) {
+            x[j] = rand.nextGaussian();
+        }
+        P = new WarpedProduct(elasticity, length);
+    }
+
+    @Benchmark
+    public double score() {
+        return WarpedProduct.score(w, 0, elasticity, length, x);
+    }
+
+    @Benchmark
+    public double product() {
+        return P.product(w, 0, elasticity, length, x);
+    }
+
+    @Benchmark
+    public double warp() {
+        return P.warp(w, 0, elasticity, length, x);
+    }
+}
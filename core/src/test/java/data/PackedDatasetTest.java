@@ -0,0 +1,34 @@
+package data;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a view rounds only its own time series to single precision, at the positions of the shared buffer.
+ */
+class PackedDatasetTest {
+
+    @Test
+    void viewRoundsOnlyItsTimeSeries() {
+        double[][] data = {{0, 0.1, 0.2}, {1, 1.1, 1.2, 1.3}, {0, 2.1}, {1, 3.1, 3.2}};
+        PackedDataset X = new PackedDataset(data);
+        PackedDataset V = X.view(new int[]{2, 0});
+        float[] f = V.toFloat(null);
+        assertEquals(X.start(2) + 1, f.length);
+        for (int i : new int[]{0, 2}) {
+            for (int k = X.start(i); k < X.start(i) + X.length(i); k++) {
+                assertEquals((float) X.values()[k], f[k]);
+            }
+        }
+        for (int k = X.start(1); k < X.start(1) + X.length(1); k++) {
+            assertEquals(0f, f[k], "value of a time series outside of the view");
+        }
+
+        float[] g = X.toFloat(f);
+        assertEquals(X.values().length, g.length);
+        for (int k = 0; k < g.length; k++) {
+            assertEquals((float) X.values()[k], g[k]);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package esmr;
+
+import data.Dataset;
+import data.Pattern;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import util.Rand;
+import util.Tensor;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Checks that training allocates no memory per example: warped products reuse the workspaces of a WarpedProduct and
+ * an epoch of WSR reuses the workspaces of its workers. Predictions of WSR reuse the buffers of their thread.
+ * Allocations are measured on the calling thread after warm-up.
+ */
+class AllocationTest {
+
+    private static com.sun.management.ThreadMXBean mx;
+
+    @BeforeAll
+    static void init() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        mx = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mx.isThreadAllocatedMemorySupported());
+        mx.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    void warpedProductsDoNotAllocate() {
+        Rand rand = Rand.newInstance(1);
+        int n = 128;
+        double[] x = new double[3 * n];
+        float[] xf = new float[3 * n];
+        for (int j = 0; j < x.length; j++) {
+            x[j] = rand.nextGaussian();
+            xf[j] = (float) x[j];
+        }
+        for (int m : new int[]{1, 5, 20}) {
+            for (double window : new double[]{1.0, 0.1}) {
+                Tensor W = rand.nextTensor(2, m, n, Math.sqrt(n));
+                Tensor F = new Tensor(2, m, n, true);
+                F.copy(W);
+                float[] wf = F.fdata;
+                WarpedProduct P = new WarpedProduct(m, n, window);
+                products(P, W, wf, x, xf, n, 2000);
+                // min of three runs, since deoptimizations of the JIT allocate now and then
+                long bytes = Long.MAX_VALUE;
+                for (int r = 0; r < 3; r++) {
+                    long before = allocated();
+                    products(P, W, wf, x, xf, n, 1000);
+                    bytes = Math.min(bytes, allocated() - before - overhead());
+                }
+                assertEquals(0, bytes, "bytes allocated by warped products, e = " + m + ", w = " + window);
+            }
+        }
+    }
+
+    @Test
+    void wsrEpochDoesNotAllocatePerExample() {
+        epochAllocation(20);
+        long small = epochAllocation(20);
+        long large = epochAllocation(200);
+        assertEquals(small, large, "bytes allocated per epoch of 20 and 200 examples");
+    }
+
+    @Test
+    void wsrPredictionDoesNotAllocate() {
+        Rand rand = Rand.newInstance(4);
+        Dataset X = new Dataset();
+        for (int i = 0; i < 30; i++) {
+            double[] x = new double[64];
+            for (int j = 0; j < x.length; j++) {
+                x[j] = Math.sin((i % 5 + 1) * j / 10.0) + rand.nextGaussian();
+            }
+            X.add(new Pattern(x, i % 5));
+        }
+        for (String window : new String[]{"1.0", "0.1"}) {
+            WSR wsr = new WSR("-e 5 -T 10 -S 100 -o 0 -L 0 -w " + window, Rand.newInstance(5));
+            wsr.fit(X);
+            predictions(wsr, X, 5000);
+            long before = allocated();
+            predictions(wsr, X, 1000);
+            long bytes = allocated() - before - overhead();
+            assertEquals(0, bytes, "bytes allocated by predictions, w = " + window);
+        }
+    }
+
+    // predicts iter series of X in turn
+    private static int predictions(WSR wsr, Dataset X, int iter) {
+        int sum = 0;
+        for (int k = 0; k < iter; k++) {
+            sum += wsr.predict(X.get(k % X.size()).x);
+        }
+        return sum;
+    }
+
+    // computes iter products and warps of the three series of length n in x with offsets in double and single precision
+    private static void products(WarpedProduct P, Tensor W, float[] wf, double[] x, float[] xf, int n, int iter) {
+        for (int k = 0; k < iter; k++) {
+            int xo = (k % 3) * n;
+            P.product(W, k % 2, x, xo, n);
+            P.warp(W, k % 2, x, xo, n);
+            P.product(wf, W.offset(k % 2), W.d1, W.d2, xf, xo, n);
+            P.warp(wf, W.offset(k % 2), W.d1, W.d2, xf, xo, n);
+        }
+    }
+
+    // returns the min bytes allocated by the training thread in an epoch of WSR on size random examples
+    private static long epochAllocation(int size) {
+        Rand rand = Rand.newInstance(2);
+        Dataset X = new Dataset();
+        for (int i = 0; i < size; i++) {
+            double[] x = new double[64];
+            for (int j = 0; j < x.length; j++) {
+                x[j] = rand.nextGaussian();
+            }
+            X.add(new Pattern(x, i % 3));
+        }
+        long[] min = {Long.MAX_VALUE};
+        long[] last = {allocated()};
+        WSR wsr = new WSR("-e 5 -T 20 -S 100 -o 0 -B 1 -threads 1 -E 1 -A 0", Rand.newInstance(3));
+        wsr.addListener(m -> {
+            long bytes = allocated();
+            if (5 < m.epoch()) {
+                min[0] = Math.min(min[0], bytes - last[0]);
+            }
+            last[0] = allocated();
+        });
+        wsr.fit(X);
+        return min[0];
+    }
+
+    // returns the bytes allocated by the calling thread so far
+    private static long allocated() {
+        return mx.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // returns the bytes allocated by measuring allocations
+    private static long overhead() {
+        long before = allocated();
+        return allocated() - before;
+    }
+}
@@ -0,0 +1,63 @@
+package esmr;
+
+import org.junit.jupiter.api.Test;
+import util.Tensor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that an asynchronous evaluator does not overwrite the snapshot of a discarded evaluation that still runs.
+ */
+class EvaluatorTest {
+
+    @Test
+    void clearKeepsSnapshotOfRunningEvaluation() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        double[] seen = new double[1];
+        Evaluator evaluator = new Evaluator((w, sample) -> {
+            if (calls.getAndIncrement() == 0) {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                seen[0] = w.get(0);
+            }
+            return new double[]{0, 0};
+        }, true);
+
+        // the evaluation of epoch 1 is discarded while it runs
+        evaluator.submit(weights(1), 1, null);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        evaluator.clear();
+        assertFalse(evaluator.submit(weights(2), 2, null), "discarded result is not returned");
+
+        // the snapshot of epoch 1 is reused by epoch 3 only after the evaluation of epoch 1 ends
+        Thread third = new Thread(() -> evaluator.submit(weights(3), 3, null));
+        third.start();
+        third.join(200);
+        assertTrue(third.isAlive(), "submit waits for the discarded evaluation");
+        release.countDown();
+        third.join(10000);
+        assertFalse(third.isAlive());
+        assertEquals(1.0, seen[0], "snapshot of the discarded evaluation");
+        assertTrue(evaluator.take());
+        assertEquals(3, evaluator.epoch);
+        evaluator.shutdown();
+    }
+
+    private static Tensor weights(double value) {
+        Tensor W = new Tensor(1, 1, 1);
+        W.set(0, value);
+        return W;
+    }
+}
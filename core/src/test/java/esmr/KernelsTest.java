@@ -0,0 +1,39 @@
+package esmr;
+
+import org.junit.jupiter.api.Test;
+import util.Rand;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks that the single precision ADAM update of a row gives the same values as updates of its cells on their own,
+ * as in lock-free training.
+ */
+class KernelsTest {
+
+    @Test
+    void singleAdamOfRowEqualsUpdatesOfCells() {
+        Rand rand = Rand.newInstance(1);
+        int n = 37;
+        float[][] w = new float[2][n];
+        float[][] m1 = new float[2][n];
+        float[][] m2 = new float[2][n];
+        for (int k = 0; k < n; k++) {
+            w[0][k] = w[1][k] = (float) rand.nextGaussian();
+        }
+        Kernels.SingleAdam adam = new Kernels.SingleAdam(0.01, 0.9, 0.99);
+        double[] g = new double[n];
+        for (int t = 0; t < 20; t++) {
+            for (int k = 0; k < n; k++) {
+                g[k] = rand.nextGaussian();
+            }
+            Kernels.adam(w[0], m1[0], m2[0], 0, g, 0, 1.0, n, 0.01, 0.9, 0.99);
+            for (int k = 0; k < n; k++) {
+                adam.step(w[1], m1[1], m2[1], k, (float) g[k]);
+            }
+        }
+        assertArrayEquals(w[0], w[1]);
+        assertArrayEquals(m1[0], m1[1]);
+        assertArrayEquals(m2[0], m2[1]);
+    }
+}
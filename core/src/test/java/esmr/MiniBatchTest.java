@@ -0,0 +1,87 @@
+package esmr;
+
+import data.Dataset;
+import data.Pattern;
+import org.junit.jupiter.api.Test;
+import util.Rand;
+import util.Tensor;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that parallel mini-batch training is reproducible: worker gradients are reduced in worker order, such that two
+ * runs with the same seed and number of threads give the same weights bit by bit.
+ */
+class MiniBatchTest {
+
+    private static final String OPTS = "-e 3 -T 15 -S 1000 -o 0 -B 4 -threads 3 ";
+
+    @Test
+    void seededRunsGiveEqualWeights() {
+        Dataset X = data();
+        for (String p : new String[]{"-p 64", "-p 32"}) {
+            assertEqualWeights(new WSR(OPTS + p, Rand.newInstance(1)), new WSR(OPTS + p, Rand.newInstance(1)), X, p);
+            assertEqualWeights(new MLSR(OPTS + p, Rand.newInstance(1)), new MLSR(OPTS + p, Rand.newInstance(1)), X, p);
+        }
+    }
+
+    @Test
+    void reductionEqualsDenseSumInWorkerOrder() {
+        Rand rand = Rand.newInstance(2);
+        int length = 50;
+        Gradient sum = new Gradient(length);
+        double[] dense = new double[length];
+        for (int round = 0; round < 3; round++) {
+            Gradient[] workers = {new Gradient(length), new Gradient(length), new Gradient(length)};
+            double[][] parts = new double[workers.length][length];
+            for (int w = 0; w < workers.length; w++) {
+                for (int l = 0; l < 2000; l++) {
+                    int k = rand.nextInt(length / 2) * (w + 1) % length;
+                    double g = rand.nextGaussian();
+                    workers[w].add(k, g);
+                    parts[w][k] += g;
+                }
+            }
+            Arrays.fill(dense, 0);
+            for (int w = 0; w < workers.length; w++) {
+                for (int k = 0; k < length; k++) {
+                    dense[k] += parts[w][k];
+                }
+                sum.reduce(workers[w]);
+                assertEquals(0, workers[w].size, "reduced gradient is cleared");
+            }
+            assertArrayEquals(dense, sum.grad);
+            sum.clear();
+            assertArrayEquals(new double[length], sum.grad);
+        }
+    }
+
+    private static void assertEqualWeights(Classifier a, Classifier b, Dataset X, String msg) {
+        a.fit(X);
+        b.fit(X);
+        Tensor V = a instanceof WSR ? ((WSR) a).W : ((MLSR) a).W;
+        Tensor W = b instanceof WSR ? ((WSR) b).W : ((MLSR) b).W;
+        assertEquals(V.size(), W.size());
+        for (int k = 0; k < W.size(); k++) {
+            assertEquals(Double.doubleToRawLongBits(V.get(k)), Double.doubleToRawLongBits(W.get(k)),
+                    a.getName() + ", " + msg + ": weight " + k);
+        }
+    }
+
+    // returns 40 series of length 60 in 4 classes
+    private static Dataset data() {
+        Rand rand = Rand.newInstance(3);
+        Dataset X = new Dataset();
+        for (int i = 0; i < 40; i++) {
+            double[] x = new double[60];
+            for (int j = 0; j < x.length; j++) {
+                x[j] = Math.sin((i % 4 + 1) * j / 8.0) + rand.nextGaussian();
+            }
+            X.add(new Pattern(x, i % 4));
+        }
+        return X;
+    }
+}
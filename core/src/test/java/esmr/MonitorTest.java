@@ -0,0 +1,31 @@
+package esmr;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that a learning rate decrease requires a new plateau, for warm and cold restarts alike.
+ */
+class MonitorTest {
+
+    @Test
+    void decreaseRequiresNewPlateau() {
+        for (boolean warm : new boolean[]{true, false}) {
+            Monitor monitor = new Monitor(100, 50, 0);
+            monitor.log(new double[]{0.2, 0.2}, 1);
+            monitor.log(new double[]{0.3, 0.3}, 2);
+            assertTrue(monitor.decreaseLearningRate(2, warm));
+
+            // the first evaluation after the decrease is worse than before it, but starts the new plateau
+            int t = warm ? 3 : 1;
+            monitor.log(new double[]{0.25, 0.25}, t);
+            assertFalse(monitor.decreaseLearningRate(t, warm));
+            monitor.log(new double[]{0.24, 0.24}, t + 1);
+            assertFalse(monitor.decreaseLearningRate(t + 1, warm));
+            monitor.log(new double[]{0.26, 0.26}, t + 2);
+            assertTrue(monitor.decreaseLearningRate(t + 2, warm));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package esmr;
+
+import data.Dataset;
+import data.Pattern;
+import org.junit.jupiter.api.Test;
+import util.Rand;
+import util.Tensor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that pruning classes by upper bounds never changes a prediction of WSR: predict() must return the class with
+ * maximum warped product of all classes, the smallest one on ties. The data have the sizes of the UCR datasets Coffee
+ * (2 classes, length 286) and Beef (5 classes, length 470).
+ */
+class PruningTest {
+
+    @Test
+    void coffeeSized() {
+        check(2, 28, 286, "-w 1.0", false);
+        check(2, 28, 286, "-w 0.05", true);
+        check(2, 28, 286, "-w 0.05 -p 32", true);
+    }
+
+    @Test
+    void beefSized() {
+        check(5, 30, 470, "-w 1.0", false);
+        check(5, 30, 470, "-w 0.05", true);
+        check(5, 30, 470, "-w 1.0 -p 32", false);
+    }
+
+    // trains WSR on random data and compares predict() with the exhaustive argmax on training and new series
+    private static void check(int classes, int size, int length, String opts, boolean pruned) {
+        Rand rand = Rand.newInstance(classes + length);
+        Dataset X = data(rand, classes, size, length);
+        WSR wsr = new WSR("-e 5 -T 30 -S 1000 -o 0 " + opts, Rand.newInstance(7));
+        wsr.fit(X);
+        Dataset T = data(rand, classes, 60, length);
+        T.addAll(data(rand, classes, 10, length - 10));
+        T.addAll(data(rand, classes, 10, length + 7));
+        T.addAll(X);
+        for (int k = 0; k < T.size(); k++) {
+            double[] x = T.get(k).x;
+            assertEquals(argmax(wsr, x), wsr.predict(x), opts + ": series " + k + " of length " + x.length);
+        }
+        if (pruned) {
+            assertTrue(0 < wsr.pruningRate(), opts + ": no class was pruned");
+        }
+    }
+
+    // returns the smallest class with maximum warped product without bounds
+    private static int argmax(WSR wsr, double[] x) {
+        Tensor W = wsr.W;
+        WarpedProduct P = new WarpedProduct(W.d1, W.d2, wsr.params.w);
+        int i0 = 0;
+        double z0 = 0;
+        for (int i = 0; i < W.d0; i++) {
+            double z = wsr.F == null ? P.product(W, i, x)
+                    : P.product(wsr.F, W.offset(i), W.d1, W.d2, P.single(x), 0, x.length);
+            if (i == 0 || z0 < z) {
+                i0 = i;
+                z0 = z;
+            }
+        }
+        return i0;
+    }
+
+    // returns size series of the given length, each a shifted and scaled class pattern with noise
+    private static Dataset data(Rand rand, int classes, int size, int length) {
+        Dataset X = new Dataset();
+        for (int k = 0; k < size; k++) {
+            int y = k % classes;
+            int shift = (int) (0.1 * length * rand.nextDouble());
+            double[] x = new double[length];
+            for (int j = 0; j < length; j++) {
+                x[j] = Math.sin((y + 1) * 2 * Math.PI * (j + shift) / length) + 0.5 * rand.nextGaussian();
+            }
+            X.add(new Pattern(x, y));
+        }
+        return X;
+    }
+}
@@ -0,0 +1,108 @@
+package esmr;
+
+import data.DataStream;
+import data.Dataset;
+import data.PackedDataset;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Rand;
+import util.Reader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that training on a stream that fits into one chunk gives the same weights as training in memory, and that
+ * a stream of several chunks with a held-out sample returns every other time series once per pass.
+ */
+class StreamTest {
+
+    private static final String OPTS = "-e 3 -T 10 -S 1000 -o 0 ";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void streamedFitEqualsInMemoryFit() throws IOException {
+        String file = write();
+        Dataset X = new Dataset(Reader.loadCSV(file));
+        for (String o : new String[]{"-p 64", "-p 32", "-p 64 -B 4 -threads 2"}) {
+            WSR a = new WSR(OPTS + o, Rand.newInstance(1));
+            a.fit(X);
+            WSR b = new WSR(OPTS + o, Rand.newInstance(1));
+            try (DataStream S = new DataStream(file, ',', X.size(), null)) {
+                b.fit(S, S.read(IntStream.range(0, X.size()).toArray()));
+            }
+            assertEquals(a.W.size(), b.W.size());
+            for (int k = 0; k < a.W.size(); k++) {
+                assertEquals(Double.doubleToRawLongBits(a.W.get(k)), Double.doubleToRawLongBits(b.W.get(k)),
+                        o + ": weight " + k);
+            }
+            assertEquals(a.eval(X), b.eval(X));
+        }
+    }
+
+    @Test
+    void passesSkipHeldOutSeries() throws IOException {
+        String file = write();
+        double[][] data = Reader.loadCSV(file);
+        try (DataStream S = new DataStream(file, ',', 7, null)) {
+            int[] rows = {0, 5, 17, 39};
+            PackedDataset H = S.holdout(rows);
+            assertEquals(data.length - rows.length, S.size());
+            for (int pass = 0; pass < 3; pass++) {
+                int[] seen = new int[data.length];
+                S.rewind(Rand.newInstance(pass));
+                for (PackedDataset C = S.next(); C != null; C = S.next()) {
+                    assertTrue(C.size() <= 7);
+                    for (int i = 0; i < C.size(); i++) {
+                        seen[find(data, C, i)]++;
+                    }
+                }
+                for (int i = 0; i < data.length; i++) {
+                    assertEquals(contains(rows, i) ? 0 : 1, seen[i], "time series " + i);
+                }
+            }
+            for (int r = 0; r < rows.length; r++) {
+                assertEquals(rows[r], find(data, H, r));
+            }
+        }
+    }
+
+    // returns the index of the row of data that equals time series i of C
+    private static int find(double[][] data, PackedDataset C, int i) {
+        for (int r = 0; r < data.length; r++) {
+            boolean equal = data[r].length == C.length(i) + 1 && data[r][0] == C.labels()[i];
+            for (int j = 0; equal && j < C.length(i); j++) {
+                equal = data[r][j + 1] == C.values()[C.start(i) + j];
+            }
+            if (equal) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean contains(int[] rows, int i) {
+        return IntStream.of(rows).anyMatch(r -> r == i);
+    }
+
+    // writes 40 distinct series of length 30 to 50 in 4 classes
+    private String write() throws IOException {
+        Rand rand = Rand.newInstance(3);
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            s.append(i % 4 + 1);
+            for (int j = 0; j < 30 + i % 21; j++) {
+                s.append(',').append(Math.sin((i % 4 + 1) * j / 8.0) + rand.nextGaussian());
+            }
+            s.append('\n');
+        }
+        return Files.writeString(dir.resolve("data.csv"), s).toString();
+    }
+}
@@ -0,0 +1,335 @@
+package esmr;
+
+import org.junit.jupiter.api.Test;
+import util.Rand;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares warped products and optimal paths of WarpedProduct with a reference that fills the full score matrix and
+ * keeps one backpointer per cell, as the original implementation did. Both compute every cell with the same operations
+ * in the same order, such that products and paths are equal, not only close. Products within a warping window are
+ * compared with the reference restricted to the band, products of many rows along anti-diagonals with the reference.
+ * The variants of the kernels for arrays, buffers and single precision must agree with each other.
+ */
+class WarpedProductTest {
+
+    private static final int[] ROWS = {1, 2, 5, 8, 20};
+    private static final int[] LENGTHS = {24, 48};
+    private static final int[] SERIES = {7, 24, 48, 61};
+
+    @Test
+    void productEqualsReference() {
+        Rand rand = Rand.newInstance(1);
+        for (int m : ROWS) {
+            for (int len : LENGTHS) {
+                WarpedProduct P = new WarpedProduct(m, len);
+                for (int n : SERIES) {
+                    double[] w = random(rand, 2 * m * len);
+                    double[] x = random(rand, n + 5);
+                    for (int off : new int[]{0, m * len}) {
+                        String msg = "m = " + m + ", len = " + len + ", n = " + n + ", off = " + off;
+                        double expected = Reference.scores(w, off, m, len, x, 5, n, null, null)[m - 1][n - 1];
+                        assertEquals(expected, P.product(w, off, m, len, x, 5, n), msg);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void warpEqualsReference() {
+        Rand rand = Rand.newInstance(2);
+        for (int m : ROWS) {
+            for (int len : LENGTHS) {
+                WarpedProduct P = new WarpedProduct(m, len);
+                for (int n : SERIES) {
+                    double[] w = random(rand, 2 * m * len);
+                    double[] x = random(rand, n + 3);
+                    for (int off : new int[]{0, m * len}) {
+                        String msg = "m = " + m + ", len = " + len + ", n = " + n + ", off = " + off;
+                        double[][] scores = Reference.scores(w, off, m, len, x, 3, n, null, null);
+                        assertEquals(scores[m - 1][n - 1], P.warp(w, off, m, len, x, 3, n), msg);
+                        assertEquals(scores[m - 1][n - 1], P.score(), msg);
+                        assertPath(Reference.path(scores), P, msg);
+                        assertEquals(P.score(), sum(w, off, m, len, x, 3, n, P), msg);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void fullWindowEqualsUnconstrained() {
+        Rand rand = Rand.newInstance(3);
+        for (int m : ROWS) {
+            WarpedProduct P = new WarpedProduct(m, 48, 1.0);
+            for (int n : SERIES) {
+                double[] w = random(rand, m * 48);
+                double[] x = random(rand, n);
+                String msg = "m = " + m + ", n = " + n;
+                double[][] scores = Reference.scores(w, 0, m, 48, x, 0, n, null, null);
+                assertEquals(scores[m - 1][n - 1], P.product(w, 0, m, 48, x, 0, n), msg);
+                assertEquals(scores[m - 1][n - 1], P.warp(w, 0, m, 48, x, 0, n), msg);
+                assertPath(Reference.path(scores), P, msg);
+                assertEquals((long) m * n, P.cells(), msg);
+            }
+        }
+    }
+
+    @Test
+    void bandEqualsMaskedReference() {
+        Rand rand = Rand.newInstance(4);
+        for (double window : new double[]{0.01, 0.05, 0.1, 0.3, 0.9}) {
+            for (int m : new int[]{2, 3, 5, 20, 70}) {
+                WarpedProduct P = new WarpedProduct(m, 48, window);
+                for (int n : SERIES) {
+                    String msg = "w = " + window + ", m = " + m + ", n = " + n;
+                    int[] lo = new int[m];
+                    int[] hi = new int[m];
+                    WarpedProduct.band(m, n, window, lo, hi);
+                    assertBand(lo, hi, n, msg);
+
+                    double[] w = random(rand, m * 48);
+                    double[] x = random(rand, n + 2);
+                    double[][] scores = Reference.scores(w, 0, m, 48, x, 2, n, lo, hi);
+                    assertEquals(scores[m - 1][n - 1], P.product(w, 0, m, 48, x, 2, n), msg);
+                    assertEquals(scores[m - 1][n - 1], P.warp(w, 0, m, 48, x, 2, n), msg);
+                    assertPath(Reference.path(scores), P, msg);
+                    assertEquals(P.score(), sum(w, 0, m, 48, x, 2, n, P), msg);
+
+                    // the path stays within the band, including its first and last cells on the edges of the lattice
+                    int[] path = P.path();
+                    long cells = 0;
+                    for (int l = 0; l < 2 * P.length(); l += 2) {
+                        int r = path[l];
+                        int c = path[l + 1];
+                        assertTrue(lo[r] <= c && c <= hi[r], msg + ": cell (" + r + ", " + c + ") outside of band");
+                    }
+                    for (int i = 0; i < m; i++) {
+                        cells += hi[i] - lo[i] + 1;
+                    }
+                    assertEquals(cells, P.cells(), msg);
+                }
+            }
+        }
+    }
+
+    @Test
+    void wavefrontEqualsReference() {
+        Rand rand = Rand.newInstance(5);
+        for (int m : new int[]{WarpedProduct.WAVEFRONT, WarpedProduct.WAVEFRONT + 1, 33}) {
+            for (int len : new int[]{16, 40}) {
+                WarpedProduct P = new WarpedProduct(m, len);
+                for (int n : new int[]{1, 2, 5, 16, 17, 33, 40, 57}) {
+                    double[] w = random(rand, m * len);
+                    double[] x = random(rand, n + 1);
+                    String msg = "m = " + m + ", len = " + len + ", n = " + n;
+                    double expected = Reference.scores(w, 0, m, len, x, 1, n, null, null)[m - 1][n - 1];
+                    assertEquals(expected, P.product(w, 0, m, len, x, 1, n), msg);
+                }
+            }
+        }
+    }
+
+    @Test
+    void variantsAgree() {
+        Rand rand = Rand.newInstance(6);
+        for (double window : new double[]{1.0, 0.1}) {
+            for (int m : ROWS) {
+                WarpedProduct P = new WarpedProduct(m, 48, window);
+                for (int n : new int[]{7, 48}) {
+                    String msg = "w = " + window + ", m = " + m + ", n = " + n;
+                    int[] lo = null;
+                    int[] hi = null;
+                    if (window < 1 && 1 < m) {
+                        lo = new int[m];
+                        hi = new int[m];
+                        WarpedProduct.band(m, n, window, lo, hi);
+                    }
+
+                    // small integers: products and sums are exact in both precisions and ties are frequent
+                    double[] w = integers(rand, 3 + m * 48);
+                    double[] x = integers(rand, n);
+                    float[] wf = single(w);
+                    float[] xf = single(x);
+                    DoubleBuffer heap = DoubleBuffer.wrap(w);
+                    DoubleBuffer direct = ByteBuffer.allocateDirect(8 * w.length).asDoubleBuffer().put(w);
+                    double[][] scores = Reference.scores(w, 3, m, 48, x, 0, n, lo, hi);
+                    double expected = scores[m - 1][n - 1];
+                    int[] path = Reference.path(scores);
+
+                    assertEquals(expected, P.product(w, 3, m, 48, x, 0, n), msg);
+                    assertEquals(expected, P.product(heap, 3, m, 48, x), msg + ", heap buffer");
+                    assertEquals(expected, P.product(direct, 3, m, 48, x), msg + ", direct buffer");
+                    assertEquals((float) expected, P.product(wf, 3, m, 48, xf, 0, n), msg + ", single");
+                    assertEquals(expected, P.warp(w, 3, m, 48, x, 0, n), msg);
+                    assertPath(path, P, msg);
+                    assertEquals((float) expected, P.warp(wf, 3, m, 48, xf, 0, n), msg + ", single");
+                    assertPath(path, P, msg + ", single");
+
+                    // real values: buffers and arrays compute the same operations
+                    double[] v = random(rand, 3 + m * 48);
+                    double[] y = random(rand, n);
+                    assertEquals(P.product(v, 3, m, 48, y, 0, n), P.product(DoubleBuffer.wrap(v), 3, m, 48, y), msg);
+                }
+            }
+        }
+    }
+
+    @Test
+    void singleBufferOnlyGrows() {
+        WarpedProduct P = new WarpedProduct(2, 8);
+        float[] f = P.single(new double[]{1, 2, 3, 4, 5, 6, 7, 8});
+        float[] g = P.single(new double[]{0.5, 1.5, 2.5}, 0, 3);
+        assertSame(f, g);
+        assertArrayEquals(new float[]{0.5f, 1.5f, 2.5f}, Arrays.copyOf(g, 3));
+    }
+
+    // asserts that the band covers (0, 0) and (m-1, n-1) and that consecutive rows overlap or touch
+    private static void assertBand(int[] lo, int[] hi, int n, String msg) {
+        int m = lo.length;
+        assertEquals(0, lo[0], msg);
+        assertEquals(n - 1, hi[m - 1], msg);
+        for (int i = 0; i < m; i++) {
+            assertTrue(0 <= lo[i] && lo[i] <= hi[i] && hi[i] < n, msg + ": row " + i);
+            if (0 < i) {
+                assertTrue(lo[i - 1] <= lo[i] && hi[i - 1] <= hi[i] && lo[i] <= hi[i - 1] + 1, msg + ": row " + i);
+            }
+        }
+    }
+
+    // asserts that the path of P equals the reference path
+    static void assertPath(int[] expected, WarpedProduct P, String msg) {
+        assertEquals(expected.length / 2, P.length(), msg);
+        assertArrayEquals(expected, Arrays.copyOf(P.path(), 2 * P.length()), msg);
+    }
+
+    // sums the products of weights and values along the path of P in the order of the path
+    static double sum(double[] w, int off, int m, int len, double[] x, int xo, int n, WarpedProduct P) {
+        int[] path = P.path();
+        double sum = 0;
+        for (int l = 0; l < 2 * P.length(); l += 2) {
+            int r = path[l];
+            int s = path[l + 1];
+            sum += s < len ? w[off + r * len + s] * x[xo + s] : 0;
+        }
+        return sum;
+    }
+
+    static double[] integers(Rand rand, int n) {
+        double[] x = new double[n];
+        for (int j = 0; j < n; j++) {
+            x[j] = rand.nextInt(9) - 4;
+        }
+        return x;
+    }
+
+    static float[] single(double[] x) {
+        float[] f = new float[x.length];
+        for (int j = 0; j < x.length; j++) {
+            f[j] = (float) x[j];
+        }
+        return f;
+    }
+
+    static double[] random(Rand rand, int n) {
+        double[] x = new double[n];
+        for (int j = 0; j < n; j++) {
+            x[j] = rand.nextGaussian();
+        }
+        return x;
+    }
+
+    /**
+     * Warped products with the full score matrix. Cells outside of an optional band lo[i],...,hi[i] score minus
+     * infinity.
+     */
+    static final class Reference {
+
+        private static final int U = 0;
+        private static final int R = 1;
+        private static final int D = 2;
+
+        // score matrix of the m x len matrix w starting at off and x[xo],...,x[xo+n-1], rows padded with zeros
+        static double[][] scores(double[] w, int off, int m, int len, double[] x, int xo, int n, int[] lo, int[] hi) {
+            double[][] s = new double[m][n];
+            for (int i = 0; i < m; i++) {
+                for (int j = 0; j < n; j++) {
+                    if (lo != null && (j < lo[i] || hi[i] < j)) {
+                        s[i][j] = Double.NEGATIVE_INFINITY;
+                        continue;
+                    }
+                    double cell = j < len ? w[off + i * len + j] * x[xo + j] : 0.0 * x[xo + j];
+                    if (i == 0 && j == 0) {
+                        s[i][j] = cell;
+                    } else if (i == 0) {
+                        s[i][j] = s[i][j - 1] + cell;
+                    } else if (j == 0) {
+                        s[i][j] = s[i - 1][j] + cell;
+                    } else {
+                        double max = s[i - 1][j - 1];
+                        if (s[i - 1][j] > max) {
+                            max = s[i - 1][j];
+                        }
+                        if (s[i][j - 1] > max) {
+                            max = s[i][j - 1];
+                        }
+                        s[i][j] = max + cell;
+                    }
+                }
+            }
+            return s;
+        }
+
+        // optimal path from (0, 0) to (m-1, n-1) as flat pairs (index of w, index of x), ties prefer the diagonal
+        static int[] path(double[][] s) {
+            int m = s.length;
+            int n = s[0].length;
+            int[] path = new int[2 * (m + n)];
+            int wi = m - 1;
+            int xj = n - 1;
+            int l = 0;
+            path[l++] = wi;
+            path[l++] = xj;
+            while (wi != 0 || xj != 0) {
+                if (wi == 0) {
+                    xj--;
+                } else if (xj == 0) {
+                    wi--;
+                } else {
+                    int dir = D;
+                    double max = s[wi - 1][xj - 1];
+                    if (s[wi - 1][xj] > max) {
+                        max = s[wi - 1][xj];
+                        dir = U;
+                    }
+                    if (s[wi][xj - 1] > max) {
+                        dir = R;
+                    }
+                    if (dir != R) {
+                        wi--;
+                    }
+                    if (dir != U) {
+                        xj--;
+                    }
+                }
+                path[l++] = wi;
+                path[l++] = xj;
+            }
+            int[] reversed = new int[l];
+            for (int a = 0; a < l; a += 2) {
+                reversed[a] = path[l - 2 - a];
+                reversed[a + 1] = path[l - 1 - a];
+            }
+            return reversed;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package tune;
+
+import org.junit.jupiter.api.Test;
+import util.Rand;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that stratified folds partition the examples, have sizes that differ by at most one and contain every class
+ * in proportion to its size.
+ */
+class CrossValidationTest {
+
+    @Test
+    void foldsAreStratified() {
+        int[][] counts = {{50, 20, 7, 2}, {3, 3}, {2, 9, 4, 11, 5}, {100, 1000}};
+        for (int[] count : counts) {
+            int[] y = labels(count);
+            for (int k : new int[]{2, 3, 5, 10}) {
+                for (int seed = 0; seed < 5; seed++) {
+                    int[][] folds = new CrossValidation(null, k, 1, seed).folds(y);
+                    assertEquals(k, folds.length);
+
+                    // partition
+                    int[] seen = new int[y.length];
+                    int min = Integer.MAX_VALUE;
+                    int max = 0;
+                    for (int[] fold : folds) {
+                        for (int i : fold) {
+                            seen[i]++;
+                        }
+                        min = Math.min(min, fold.length);
+                        max = Math.max(max, fold.length);
+                    }
+                    for (int s : seen) {
+                        assertEquals(1, s);
+                    }
+                    assertTrue(max - min <= 1, "sizes of folds");
+
+                    // proportions: every fold holds the floor or the ceiling of count / k examples of a class
+                    for (int[] fold : folds) {
+                        int[] num = new int[count.length];
+                        for (int i : fold) {
+                            num[y[i]]++;
+                        }
+                        for (int c = 0; c < count.length; c++) {
+                            assertTrue(count[c] / k <= num[c] && num[c] <= (count[c] + k - 1) / k,
+                                    Arrays.toString(count) + " k = " + k + " class " + c + ": " + num[c]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // returns labels with count[c] examples of class c in random order
+    private static int[] labels(int[] count) {
+        int[] order = Rand.newInstance(1).shuffle(Arrays.stream(count).sum());
+        int[] y = new int[order.length];
+        int i = 0;
+        for (int c = 0; c < count.length; c++) {
+            for (int j = 0; j < count[c]; j++) {
+                y[order[i++]] = c;
+            }
+        }
+        return y;
+    }
+}
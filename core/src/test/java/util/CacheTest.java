@@ -0,0 +1,94 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the cache returns the rows of the text file, is reused while size and modification time of the text file
+ * are unchanged and rewritten as soon as one of them changes.
+ */
+class CacheTest {
+
+    static final String DATA = "2,0.5,-1e-3,7\n-1,1.25,3\n2,0,-0.0,1e23,4.9e-324\n";
+    static final long TIME = 1_600_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void roundTrip() throws IOException {
+        String file = write("data.csv", DATA, TIME);
+        double[][] X = Reader.parse(file, ',');
+        assertRows(X, Cache.load(file, ','));
+        assertTrue(Files.isRegularFile(Path.of(file + Cache.SUFFIX)));
+        assertRows(X, Cache.load(file, ','));
+
+        // the cache file written from rows in memory equals the one converted by scanning
+        byte[] loaded = Files.readAllBytes(Path.of(file + Cache.SUFFIX));
+        Files.delete(Path.of(file + Cache.SUFFIX));
+        assertEquals(file + Cache.SUFFIX, Cache.create(file, ','));
+        assertArrayEquals(loaded, Files.readAllBytes(Path.of(file + Cache.SUFFIX)));
+        assertRows(X, Cache.load(file, ','));
+    }
+
+    @Test
+    void cacheIsReusedWhileSizeAndTimeAreUnchanged() throws IOException {
+        String file = write("data.csv", DATA, TIME);
+        double[][] X = Cache.load(file, ',');
+
+        // same size and time, different values: the cache cannot tell and returns the old rows
+        write("data.csv", DATA.replace('5', '6'), TIME);
+        assertRows(X, Cache.load(file, ','));
+    }
+
+    @Test
+    void cacheIsRewrittenIfTimeChanges() throws IOException {
+        String file = write("data.csv", DATA, TIME);
+        Cache.load(file, ',');
+        write("data.csv", DATA.replace('5', '6'), TIME + 1000);
+        assertRows(Reader.parse(file, ','), Cache.load(file, ','));
+        assertRows(Reader.parse(file, ','), Cache.load(file, ','));
+    }
+
+    @Test
+    void cacheIsRewrittenIfSizeChanges() throws IOException {
+        String file = write("data.csv", DATA, TIME);
+        Cache.load(file, ',');
+        write("data.csv", DATA + "-1,8,9\n", TIME);
+        double[][] X = Reader.parse(file, ',');
+        assertEquals(4, X.length);
+        assertRows(X, Cache.load(file, ','));
+        assertRows(X, Cache.load(file, ','));
+
+        // create() rewrites a stale cache as well
+        write("data.csv", DATA, TIME);
+        Cache.create(file, ',');
+        assertRows(Reader.parse(file, ','), Cache.load(file, ','));
+    }
+
+    private static void assertRows(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].length, actual[i].length);
+            for (int j = 0; j < expected[i].length; j++) {
+                assertEquals(Double.doubleToRawLongBits(expected[i][j]), Double.doubleToRawLongBits(actual[i][j]));
+            }
+        }
+    }
+
+    private String write(String name, String content, long time) throws IOException {
+        Path file = Files.write(dir.resolve(name), content.getBytes(StandardCharsets.US_ASCII));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(time));
+        return file.toString();
+    }
+}
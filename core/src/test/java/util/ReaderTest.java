@@ -0,0 +1,93 @@
+package util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the parser of parse() reads the same doubles as Double.parseDouble(), bit by bit, on and off its fast
+ * path, and rejects the fields that Double.parseDouble() rejects.
+ */
+class ReaderTest {
+
+    static final String[] VALUES = {
+            "0", "1", "-1", "+7", "42", "0.5", ".5", "5.", "-0.125", "3.14159", "0001.2500",
+            "1e5", "1E5", "2.5e-3", "2.5E-3", "-1.5e+10", "1e0", "1e-0", "7e22", "7e-22",
+            "0.1234567890123456789", "123456789012345678", "1234567890123456789012", "9007199254740993",
+            "0.000000000000000000000000001", "100000000000000000000000000000",
+            "1e23", "1e-23", "1e-30", "1e300", "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157e308",
+            "1e400", "-1e400", "1e-400", "12345e-27", "0.0000012345e25",
+            "-0", "-0.0", "-0e5", "+0.0", "0.000", "Infinity", "-Infinity", "0x1p3", "1d", "2f"
+    };
+    static final String[] MALFORMED = {"1.2.3", "abc", "1e", "1e+", "e5", "--1", "+-1", "1-", ".", "-", "1 2", "1,,2"};
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void valuesEqualParseDouble() throws IOException {
+        String csv = "1," + String.join(",", VALUES) + "\n2 , " + String.join(" , ", VALUES) + ",\n";
+        Path file = write("values.csv", csv);
+        double[][] X = Reader.parse(file.toString(), ',');
+        assertRows(X, 2, VALUES);
+        assertRows(Reader.load(file.toString(), "\\s*,\\s*"), 2, VALUES);
+
+        String ssv = "1 " + String.join(" ", VALUES) + "\r\n\t2  " + String.join("  ", VALUES) + " \n";
+        assertRows(Reader.parse(write("values.ssv", ssv).toString(), ' '), 2, VALUES);
+    }
+
+    @Test
+    void randomNumbersEqualParseDouble() throws IOException {
+        Random rand = new Random(17);
+        String[] values = new String[2000];
+        for (int i = 0; i < values.length; i++) {
+            StringBuilder s = new StringBuilder(rand.nextBoolean() ? "-" : "");
+            int digits = 1 + rand.nextInt(22);
+            int point = rand.nextInt(digits + 1);
+            for (int k = 0; k < digits; k++) {
+                s.append(k == point ? "." : "").append(rand.nextInt(10));
+            }
+            if (rand.nextBoolean()) {
+                s.append(rand.nextBoolean() ? 'e' : 'E').append(rand.nextInt(61) - 30);
+            }
+            values[i] = s.toString();
+        }
+        Path file = write("random.csv", "1," + String.join(",", values) + "\n");
+        assertRows(Reader.parse(file.toString(), ','), 1, values);
+    }
+
+    @Test
+    void malformedFieldsThrowAsParseDouble() throws IOException {
+        for (String value : MALFORMED) {
+            if (!value.contains(" ") && !value.contains(",")) {
+                assertThrows(NumberFormatException.class, () -> Double.parseDouble(value), value);
+            }
+            Path file = write("malformed.csv", "1.5," + value + ",2\n");
+            assertThrows(NumberFormatException.class, () -> Reader.parse(file.toString(), ','), value);
+        }
+    }
+
+    // asserts that X has the specified number of rows, each holding a label followed by the values
+    private static void assertRows(double[][] X, int rows, String[] values) {
+        assertEquals(rows, X.length);
+        for (double[] x : X) {
+            assertEquals(values.length + 1, x.length);
+            for (int k = 0; k < values.length; k++) {
+                long expected = Double.doubleToRawLongBits(Double.parseDouble(values[k]));
+                assertEquals(expected, Double.doubleToRawLongBits(x[k + 1]), values[k]);
+            }
+        }
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(dir.resolve(name), content.getBytes(StandardCharsets.US_ASCII));
+    }
+}
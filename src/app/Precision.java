@@ -0,0 +1,99 @@
+package app;
+
+import data.Dataset;
+import esmr.Classifier;
+import esmr.MLSR;
+import esmr.WSR;
+import util.Rand;
+
+/**
+ * Compares single precision ("-p 32") with double precision ("-p 64") on the bundled UCR datasets. In single
+ * precision, series, weights and moments are stored as floats and training and prediction run float kernels.
+ *
+ * The output lists per dataset, classifier and precision
+ *      - train and test error averaged over seeds; both modes are trained from the same seeds with the options of
+ *        Test; rounding changes the path of stochastic gradient descent, such that single runs differ, but the mean
+ *        errors should agree
+ *      - the time of a training epoch, measured over a fixed number of epochs without evaluations
+ *      - the time of one evaluation of the test set
+ *      both times are the min over several runs
+ *      - the bytes of the training state: series, weights, best weights and two moments
+ */
+public class Precision {
+
+    String[] datasets = {"Coffee", "Beef"};
+    String opts = " -e 5 -l 0.4 -R 0 -r 0.01 -b1 0.9 -b2 0.99 -T 5000 -S 250 -o 0 ";
+    int seeds = 10;                     // number of seeds for errors
+    int epochs = 50;                    // number of timed training epochs
+    int reps = 50;                      // number of evaluations of the test set per timed run
+    int runs = 5;                       // number of timed runs, the min time is reported
+
+    public static void main(String[] args) {
+        Precision precision = new Precision();
+        precision.apply();
+    }
+
+    public void apply() {
+        System.out.format("%-8s %-4s %3s %10s %10s %10s %10s %12s%n",
+                "data", "clf", "p", "train err", "test err", "ms / ep", "ms / eval", "state [B]");
+        for (String data : datasets) {
+            Test test = new Test();
+            test.data = data;
+            Dataset[] X = test.getData();
+            test.augment(X);
+            for (int typeClf = 0; typeClf < 2; typeClf++) {
+                for (int p : new int[]{64, 32}) {
+                    String o = opts + " -p " + p;
+
+                    // errors
+                    double errTr = 0;
+                    double errTe = 0;
+                    Classifier clf = null;
+                    for (int seed = 1; seed <= seeds; seed++) {
+                        clf = getClassifier(typeClf, o, seed);
+                        clf.fit(X[0]);
+                        errTr += 100.0 * clf.eval(X[0]) / seeds;
+                        errTe += 100.0 * clf.eval(X[1]) / seeds;
+                    }
+
+                    // min time of training epochs without evaluations after warm-up
+                    String timed = o + " -T " + epochs + " -K " + (epochs + 1);
+                    getClassifier(typeClf, timed, 0).fit(X[0]);
+                    double msEpoch = Double.MAX_VALUE;
+                    for (int r = 0; r < runs; r++) {
+                        long start = System.nanoTime();
+                        getClassifier(typeClf, timed, 0).fit(X[0]);
+                        msEpoch = Math.min(msEpoch, (System.nanoTime() - start) / (1e6 * epochs));
+                    }
+
+                    // min time of evaluations of the test set after warm-up
+                    for (int r = 0; r < reps; r++) {
+                        clf.predict(X[1]);
+                    }
+                    double msEval = Double.MAX_VALUE;
+                    for (int r = 0; r < runs; r++) {
+                        long start = System.nanoTime();
+                        for (int q = 0; q < reps; q++) {
+                            clf.predict(X[1]);
+                        }
+                        msEval = Math.min(msEval, (System.nanoTime() - start) / (1e6 * reps));
+                    }
+
+                    long cells = (long) X[0].numLabels() * clf.getOptions().getInt("-e") * X[0].maxlength();
+                    long values = 0;
+                    for (int i = 0; i < X[0].size(); i++) {
+                        values += X[0].get(i).length();
+                    }
+                    long bytes = (p / 8) * (4 * cells + values);
+                    System.out.format("%-8s %-4s %3d %10.4f %10.4f %10.3f %10.3f %12d%n", data,
+                            typeClf == 0 ? "WSR" : "MLSR", p, errTr, errTe, msEpoch, msEval, bytes);
+                }
+            }
+        }
+    }
+
+    private static Classifier getClassifier(int typeClf, String opts, int seed) {
+        Rand rand = Rand.newInstance(seed);
+        return typeClf == 0 ? new WSR(opts, rand) : new MLSR(opts, rand);
+    }
+}
@@ -0,0 +1,92 @@
+package app;
+
+import util.Rand;
+import util.Reader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures the throughput in MB/s of reading UCR datasets with the regular expression based Reader.load() and with
+ * the parallel parser Reader.parse(), and checks that both return the same values.
+ *
+ * Without arguments, the benchmark writes a synthetic dataset of about size MB in comma separated and in space
+ * separated format to the temporary directory. Otherwise, the arguments are the files to be read; files ending with
+ * ".csv" or ".txt" are read as comma separated values, all others as space separated values.
+ */
+public class ReaderBenchmark {
+
+    int size = 200;                     // size of synthetic dataset in MB
+    int length = 500;                   // length of synthetic time series
+    int reps = 3;                       // number of timed reads
+
+    public static void main(String[] args) throws IOException {
+        ReaderBenchmark bench = new ReaderBenchmark();
+        if (args.length == 0) {
+            File csv = File.createTempFile("esmr", ".csv");
+            File ssv = File.createTempFile("esmr", ".ssv");
+            csv.deleteOnExit();
+            ssv.deleteOnExit();
+            bench.write(csv, ",");
+            bench.write(ssv, " ");
+            args = new String[]{csv.getPath(), ssv.getPath()};
+        }
+        for (String file : args) {
+            bench.apply(file);
+        }
+    }
+
+    public void apply(String file) {
+        boolean csv = file.endsWith(".csv") || file.endsWith(".txt");
+        double mb = new File(file).length() / 1E6;
+        double[][] X = null;
+        double[][] Y = null;
+        double tRegex = Double.POSITIVE_INFINITY;
+        double tParse = Double.POSITIVE_INFINITY;
+        for (int r = 0; r < reps; r++) {
+            long start = System.nanoTime();
+            X = Reader.load(file, csv ? "," : "\\s+");
+            tRegex = Math.min(tRegex, 1E-9 * (System.nanoTime() - start));
+            start = System.nanoTime();
+            Y = Reader.parse(file, csv ? ',' : ' ');
+            tParse = Math.min(tParse, 1E-9 * (System.nanoTime() - start));
+        }
+        System.out.format("file        : %s (%.1f MB, %d rows)%n", file, mb, Y.length);
+        System.out.format("load        : %8.1f MB/s%n", mb / tRegex);
+        System.out.format("parse       : %8.1f MB/s%n", mb / tParse);
+        System.out.format("same values : %s%n", Arrays.deepEquals(X, Y));
+    }
+
+    // writes random time series with values in different formats and trailing NaNs
+    void write(File file, String delimiter) throws IOException {
+        Rand rand = Rand.getInstance();
+        long bytes = 0;
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+            for (int i = 0; bytes < size * 1000000L; i++) {
+                StringBuilder line = new StringBuilder();
+                line.append(rand.nextInt(10) - 3);
+                int len = length - rand.nextInt(10);
+                for (int j = 0; j < length; j++) {
+                    line.append(delimiter);
+                    double v = rand.nextGaussian();
+                    if (len <= j) {
+                        line.append("NaN");
+                    } else if (j % 50 == 0) {
+                        line.append(String.format(Locale.ROOT, "%.3e", 1E-8 * v));
+                    } else if (j % 7 == 0) {
+                        line.append(v);
+                    } else {
+                        line.append(String.format(Locale.ROOT, "%.6f", v));
+                    }
+                }
+                line.append('\n');
+                out.write(line.toString());
+                bytes += line.length();
+            }
+        }
+    }
+}
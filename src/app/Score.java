@@ -0,0 +1,49 @@
+package app;
+
+import data.Dataset;
+import data.PackedDataset;
+import esmr.Model;
+import transform.Augment;
+import util.Reader;
+
+/**
+ * Scores a UCR dataset with a model file saved by Test. The model is memory-mapped, such that several scoring processes
+ * share the weights in the page cache and start without training.
+ *
+ * The following options need to be set:
+ *      - model         model file
+ *      - file          UCR dataset to be scored
+ *      - bias          value of bias; needs to be the same as for training
+ */
+public class Score {
+
+    String model = "./model.bin";
+    String file = "./ucr/Coffee/Coffee_TEST.txt";
+    double bias = -0.1;
+
+    public static void main(String[] args) {
+        Score score = new Score();
+        if (0 < args.length) {
+            score.model = args[0];
+        }
+        if (1 < args.length) {
+            score.file = args[1];
+        }
+        score.apply();
+    }
+
+    public void apply() {
+        long start = System.nanoTime();
+        Model clf = Model.load(model);
+        double load = 1E-6 * (System.nanoTime() - start);
+        Dataset X = new Augment(bias).transform(new PackedDataset(Reader.loadCSV(file)));
+        double err = 100.0 * clf.eval(X);
+
+        System.out.format("model       : %s %n", model);
+        System.out.format("classifier  : %s %n", clf.getName());
+        System.out.format("options     : %s %n", clf.getOptions());
+        System.out.format("data        : %s %n", file);
+        System.out.format("error       : %7.4f%n", err);
+        System.out.format("load time   : %7.3f ms%n", load);
+    }
+}
@@ -2,11 +2,15 @@ package app;
 
 import esmr.Classifier;
 import esmr.MLSR;
+import esmr.Model;
+import esmr.TrainingMetrics;
 import esmr.WSR;
 import data.Dataset;
+import data.PackedDataset;
 import transform.Augment;
 import transform.Transform;
 import transform.ZNormalize;
+import util.Cache;
 import util.Msg;
 import util.Rand;
 import util.Reader;
@@ -23,7 +27,7 @@ import util.Reader;
  * NOTE:
  *      1. Time series need to be augmented for including the bias term. For this, method apply() calls the method
  *          augment().
- *      2. Learning rate is selected automatically.
+ *      2. Learning rate is selected automatically by a range test with "-F 1", otherwise it is given by -l.
  *
  * The following options need to be set:
  *      - dir           directory of UCR repository
@@ -31,22 +35,47 @@ import util.Reader;
  *      - typeClf       type of classifier: 0 = warped softmax regression, 1 = max-linear softmax regression
  *      - opts          options for classifiers, details are given below
  *      - flagZNORM     toggles z-normalization: 0 = off, 1 = on
+ *      - flagCache     toggles binary cache of datasets: 0 = off, 1 = on; the first run writes <file>.cache next to
+ *                      each text file, later runs load it without parsing (see util.Cache)
  *      - bias          sets value of bias
  *      - seed          seed for random number generator
+ *      - model         file the trained classifier is saved to (null = not saved), see Score for loading it
+ *      - jmx           name of the MBean "esmr:type=Training,name=<jmx>" reporting the metrics of each training
+ *                      epoch of WSR and MLSR (null = off), see esmr.Metrics
  *
  * Parameters of opts
  *      -e [int]        elasticity; e > 0; "-e 1" corresponds to standard softmax regression
- *      -l [real]       learning rate; 0 < l < 1 (is selected automatically)
+ *      -w [real]       warping window of WSR as fraction of length; w > 0; w >= 1 means unconstrained warping
+ *      -l [real]       learning rate; 0 < l < 1 (is ignored for "-F 1")
+ *      -F [0|1]        1 = selects the initial learning rate by a range test: a few mini-batches of at least 16
+ *                      examples are trained with exponentially increasing learning rates from the initial weights;
+ *                      weights and moments are reset afterwards
+ *      -W [0|1]        restarts after a decrease of the learning rate: 0 = re-initialized weights, 1 = current
+ *                      weights and moments (warm restart)
  *      -R [0|1|2]      type of regularization: 0 = no regularization, 1 = L1-regularization, 2 = L2-regularization
  *      -r [real]       regularization parameter; 0 <= r <= 1
  *      -b1 [real]      first momentum of ADAM optimizer
  *      -b2 [real]      second momentum of ADAM optimizer
+ *      -B [int]        mini-batch size; B > 0; "-B 1" corresponds to stochastic gradient descent
+ *      -threads [int]  number of worker threads; threads > 0; for "-B 1" the threads run lock-free asynchronous
+ *                      stochastic gradient descent (Hogwild) on shards of each epoch
+ *      -L [int]        WSR scores the classes of a single time series in parallel if the number of cells of all
+ *                      warped products is at least L; "-L 0" turns class-parallel prediction off
+ *      -p [32|64]      precision of training and predictions: 32 = series, weights and moments in single precision
+ *                      with single precision kernels, 64 = double precision (see Precision for a comparison)
+ *      -E [0|1]        evaluation of convergence: 0 = loss and error of training set after each epoch, 1 = running
+ *                      estimates of the training pass (no extra pass over the training set)
+ *      -K [int]        number of epochs between evaluations; K > 0
+ *      -s [real]       fraction of the training set evaluated, sampled per class; 0 < s <= 1; near convergence the
+ *                      classifiers evaluate the full training set after every epoch
+ *      -A [0|1]        1 = evaluates a snapshot of the weights on a background thread, while the next epoch trains;
+ *                      early stopping and the choice of the best weights lag behind by one evaluation
  *      -T [int]        maximum number of epochs; T > 0
  *      -S [int]        maximum number of epochs without improvement; S > 0
  *      -o [0|1|2]      verbositiy: 0 = quiet, 1 = reports current number of epoch, 2 = reports progress in each epoch
  *
  * Output o = 2
- *      number of epoch, current loss, current error rate, minimum loss, minimum error rate
+ *      number of epoch, current loss, current error rate, minimum loss, minimum error rate, examples per second
  */
 public class Test {
 
@@ -55,8 +84,11 @@ public class Test {
     int typeClf = 0;
     String opts = " -e 5 -l 0.4 -R 0 -r 0.01 -b1 0.9 -b2 0.99 -T 5000 -S 250 -o 2 ";
     int flagZNORM = 0;
+    int flagCache = 0;
     double bias = -0.1;
     int seed = 10;
+    String model = null;
+    String jmx = null;
 
     public static void main(String[] args) {
         Test test = new Test();
@@ -77,7 +109,13 @@ public class Test {
 
         // train and test
         Classifier clf = getClassifier();
+        if (jmx != null) {
+            clf.addListener(TrainingMetrics.register(jmx));
+        }
         clf.fit(train);
+        if (model != null) {
+            Model.save(clf, model);
+        }
         double errTr = 100.0 * clf.eval(train);
         double errTe = 100.0 * clf.eval(test);
 
@@ -88,6 +126,9 @@ public class Test {
         System.out.format("options     : %s %n", clf.getOptions());
         System.out.format("train error : %7.4f%n", errTr);
         System.out.format("test error  : %7.4f%n", errTe);
+        if (clf instanceof WSR) {
+            System.out.format("pruned      : %7.4f%n", 100.0 * ((WSR) clf).pruningRate());
+        }
     }
 
     public Classifier getClassifier() {
@@ -107,8 +148,8 @@ public class Test {
         Dataset[] X;
         f += data + "/" + data;
         X = new Dataset[2];
-        X[0] = new Dataset(Reader.loadCSV(f + "_TRAIN.txt"));
-        X[1] = new Dataset(Reader.loadCSV(f + "_TEST.txt"));
+        X[0] = new PackedDataset(load(f + "_TRAIN.txt"));
+        X[1] = new PackedDataset(load(f + "_TEST.txt"));
         if (flagZNORM > 0) {
             Transform t = new ZNormalize();
             X[0] = X[0] != null ? t.transform(X[0]) : null;
@@ -117,6 +158,10 @@ public class Test {
         return X;
     }
 
+    double[][] load(String file) {
+        return flagCache > 0 ? Cache.load(file, ',') : Reader.loadCSV(file);
+    }
+
     void augment(Dataset[] X) {
         if (X == null || X.length != 2) {
             Msg.error("Error! Incompatible number of m_data sets (2) to be processed.");
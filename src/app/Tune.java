@@ -0,0 +1,136 @@
+package app;
+
+import data.Dataset;
+import data.PackedDataset;
+import esmr.Classifier;
+import esmr.MLSR;
+import esmr.WSR;
+import transform.Augment;
+import tune.CrossValidation;
+import tune.Space;
+import util.Msg;
+import util.Options;
+import util.Rand;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the options of warped or max-linear softmax regression for a UCR dataset by stratified k-fold
+ * cross-validation on the training set, refits the best configuration on the full training set and reports its test
+ * error. Datasets are loaded as in Test.
+ *
+ * The following options need to be set:
+ *      - dir           directory of UCR repository
+ *      - data          name of UCR dataset
+ *      - typeClf       type of classifier: 0 = warped softmax regression, 1 = max-linear softmax regression
+ *      - opts          fixed options of all configurations (see Test)
+ *      - space         search space of options (see tune.Space); the flag -bias sets the bias of the augmentation,
+ *                      e.g. "-e 1,3,5 -l 0.1,0.01 -r 1E-4:1E-1:log -bias -0.1,0.1"
+ *      - search        0 = grid search, 1 = random search
+ *      - trials        number of configurations of a random search
+ *      - folds         number of folds; folds > 1
+ *      - threads       max number of concurrent trials, each trial runs with the threads given by opts
+ *      - memory        fraction of the free heap available to concurrent trials; concurrency is reduced if the
+ *                      weights, moments and gradients of the trials would exceed it
+ *      - flagZNORM     toggles z-normalization: 0 = off, 1 = on
+ *      - bias          bias of configurations without flag -bias
+ *      - seed          seed for folds, trials and random search
+ *
+ * Output
+ *      index of configuration, mean and standard deviation of error rates over the folds, configuration
+ */
+public class Tune {
+
+    String dir = "./ucr/";
+    String data = "Coffee";
+    int typeClf = 0;
+    String opts = " -T 1000 -S 100 ";
+    String space = " -e 1,3,5 -l 0.1,0.01 -R 0,2 -r 0.01 ";
+    int search = 0;
+    int trials = 20;
+    int folds = 5;
+    int threads = Runtime.getRuntime().availableProcessors();
+    double memory = 0.5;
+    int flagZNORM = 0;
+    double bias = -0.1;
+    int seed = 10;
+
+    public static void main(String[] args) {
+        Tune tune = new Tune();
+        tune.apply();
+    }
+
+    public void apply() {
+
+        // load data without augmentation
+        Test test = new Test();
+        test.dir = dir;
+        test.data = data;
+        test.flagZNORM = flagZNORM;
+        Dataset[] X = test.getData();
+
+        // configurations, the bias is split off the options of a classifier
+        Space s = new Space(space);
+        List<String> configs = search == 0 ? s.grid() : s.sample(trials, Rand.newInstance(seed));
+        List<String> options = new ArrayList<>();
+        List<Double> biases = new ArrayList<>();
+        for (String config : configs) {
+            Options o = new Options(config);
+            biases.add(o.containsKey("-bias") ? o.getDouble("-bias") : bias);
+            o.remove("-bias");
+            options.add(opts + " " + o);
+        }
+
+        // one augmented training set per bias, shared by all trials
+        Map<Double, PackedDataset> train = new HashMap<>();
+        List<PackedDataset> sets = new ArrayList<>();
+        for (double b : biases) {
+            sets.add(train.computeIfAbsent(b, v -> new Augment(v).transform(X[0]).pack()));
+        }
+
+        // cross-validation
+        CrossValidation cv = new CrossValidation(this::getClassifier, folds, threads, seed);
+        cv.setMemory(memory);
+        cv.setVerbosity(0);
+        long start = System.nanoTime();
+        int best = cv.apply(options, sets);
+        double time = 1E-9 * (System.nanoTime() - start);
+        for (int c = 0; c < configs.size(); c++) {
+            System.out.printf("%5d  %7.4f  %7.4f  %s%n", c, 100.0 * cv.mean()[c], 100.0 * cv.std()[c], configs.get(c));
+        }
+
+        // refit best configuration
+        Classifier clf = getClassifier(options.get(best) + " -o 0", Rand.newInstance(seed));
+        clf.fit(sets.get(best));
+        Dataset testSet = new Augment(biases.get(best)).transform(X[1]);
+        double errTr = 100.0 * clf.eval(sets.get(best));
+        double errTe = 100.0 * clf.eval(testSet);
+
+        // print result
+        System.out.println();
+        System.out.format("data        : %s %n", data);
+        System.out.format("classifier  : %s %n", clf.getName());
+        System.out.format("best        : %s %n", configs.get(best));
+        System.out.format("bias        : %s %n", biases.get(best));
+        System.out.format("options     : %s %n", clf.getOptions());
+        System.out.format("cv error    : %7.4f%n", 100.0 * cv.mean()[best]);
+        System.out.format("train error : %7.4f%n", errTr);
+        System.out.format("test error  : %7.4f%n", errTe);
+        System.out.format("time        : %7.1f s%n", time);
+    }
+
+    public Classifier getClassifier(String opts, Rand rand) {
+        switch (typeClf) {
+            case 0:
+                return new WSR(opts, rand);
+            case 1:
+                return new MLSR(opts, rand);
+            default:
+                Msg.error("Error! Unknown type of classifier: %d.", typeClf);
+        }
+        return null;
+    }
+}
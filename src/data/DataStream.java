@@ -0,0 +1,310 @@
+package data;
+
+import util.Cache;
+import util.Msg;
+import util.Rand;
+import util.Reader;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+
+/**
+ * Dataset on disk that is read in chunks of consecutive time series for training out of core. The dataset is stored
+ * in the binary format of util.Cache. Only labels and lengths are held in memory.
+ *
+ * A pass over the dataset returns the chunks in random order. While the caller processes a chunk, the next chunk is
+ * read on a background thread into the second of two buffers, such that reading overlaps training. A chunk is valid
+ * until the second next call of next(). Time series can be held out, for example as an in-memory sample for
+ * monitoring convergence, and are then skipped by all passes.
+ *
+ * Chunks and held-out samples are mapped by an optional transform (such as normalization and augmentation), which runs
+ * on the background thread as well.
+ */
+public final class DataStream implements AutoCloseable {
+
+    private final FileChannel ch;
+    private final int n;                            // number of time series
+    private final int[] labels;                     // class labels
+    private final int[] lengths;                    // lengths of time series
+    private final long[] pos;                       // position of first value of a time series in file
+    private final int chunk;                        // max number of time series of a chunk
+    private final int numChunks;                    // number of chunks
+    private final int numLabels;                    // number of class labels
+    private final UnaryOperator<PackedDataset> map; // transform of chunks (null = none)
+    private final boolean[] heldOut;                // time series skipped by passes
+    private final ByteBuffer[] bytes = new ByteBuffer[2];
+    private final double[][] values = new double[2][];
+    private final ExecutorService exec;
+    private int numHeldOut;                         // number of held-out time series
+    private int maxlength = -1;                     // max length of transformed time series (-1 = not computed)
+    private int[] order;                            // order of chunks in current pass
+    private int next;                               // index of next chunk in order
+    private int slot;                               // buffer of next read
+    private Future<PackedDataset> pending;          // read of next chunk
+
+    /**
+     * Opens a dataset as chunks of at most chunk time series. The text file is converted into a cache file, if the
+     * cache is not up to date.
+     *
+     * @param file      name of text file
+     * @param delimiter ',' for comma separated values, ' ' for values separated by white space
+     * @param chunk     max number of time series of a chunk
+     * @param map       transform applied to chunks and held-out samples (null = none)
+     */
+    public DataStream(String file, char delimiter, int chunk, UnaryOperator<PackedDataset> map) {
+        if (chunk < 1) {
+            Msg.error("Error! Chunk size must be positive: %d.", chunk);
+        }
+        String cache = Cache.create(file, delimiter);
+        FileChannel c = null;
+        int[] y = null;
+        int[] len = null;
+        try {
+            c = FileChannel.open(Paths.get(cache), StandardOpenOption.READ);
+            ByteBuffer head = read(c, 0, Cache.HEADER);
+            head.position(Cache.HEADER - 4);
+            int size = head.getInt();
+            IntBuffer ints = read(c, Cache.HEADER, 8 * size).asIntBuffer();
+            y = new int[size];
+            len = new int[size];
+            ints.get(y);
+            ints.get(len);
+        } catch (IOException e) {
+            Msg.error("Error! Cannot read %s: %s", cache, e.getMessage());
+        }
+        this.ch = c;
+        this.chunk = chunk;
+        this.map = map;
+        n = y.length;
+        labels = y;
+        lengths = len;
+        pos = new long[n + 1];
+        pos[0] = Cache.HEADER + 8L * n;
+        for (int i = 0; i < n; i++) {
+            pos[i + 1] = pos[i] + 8L * lengths[i];
+        }
+        try {
+            if (ch.size() != pos[n]) {
+                Msg.error("Error! Corrupt cache file: %s.", cache);
+            }
+        } catch (IOException e) {
+            Msg.error("Error! Cannot read %s: %s", cache, e.getMessage());
+        }
+        numChunks = (n + chunk - 1) / chunk;
+        long max = 0;
+        for (int k = 0; k < numChunks; k++) {
+            max = Math.max(max, pos[Math.min(n, (k + 1) * chunk)] - pos[k * chunk]);
+        }
+        if (Integer.MAX_VALUE < max) {
+            Msg.error("Error! Chunks of %d time series exceed 2 GB.", chunk);
+        }
+        for (int s = 0; s < 2; s++) {
+            bytes[s] = ByteBuffer.allocateDirect((int) max).order(ByteOrder.LITTLE_ENDIAN);
+            values[s] = new double[(int) (max / 8)];
+        }
+        heldOut = new boolean[n];
+        numLabels = Reader.distinct(labels).length;
+        exec = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the number of time series of a pass, i.e. without held-out time series.
+     */
+    public int size() {
+        return n - numHeldOut;
+    }
+
+    /**
+     * Returns the labels of all time series including held-out time series. The array is shared and must not be
+     * modified.
+     */
+    public int[] labels() {
+        return labels;
+    }
+
+    public int numLabels() {
+        return numLabels;
+    }
+
+    /**
+     * Returns the max length of the transformed time series.
+     */
+    public int maxlength() {
+        if (maxlength < 0) {
+            int longest = 0;
+            for (int i = 1; i < n; i++) {
+                if (lengths[longest] < lengths[i]) {
+                    longest = i;
+                }
+            }
+            maxlength = n == 0 ? 0 : read(new int[]{longest}).maxlength();
+        }
+        return maxlength;
+    }
+
+    /**
+     * Reads the time series rows[0],...,rows[k-1] into memory and excludes them from all passes. Needs to be called
+     * before the first pass.
+     */
+    public PackedDataset holdout(int[] rows) {
+        if (order != null) {
+            Msg.error("Error! Time series need to be held out before the first pass.");
+        }
+        for (int i : rows) {
+            if (!heldOut[i]) {
+                heldOut[i] = true;
+                numHeldOut++;
+            }
+        }
+        return read(rows);
+    }
+
+    /**
+     * Reads the time series rows[0],...,rows[k-1] into memory.
+     */
+    public PackedDataset read(int[] rows) {
+        int k = rows.length;
+        int[] start = new int[k];
+        int[] length = new int[k];
+        int[] y = new int[k];
+        int total = 0;
+        for (int i = 0; i < k; i++) {
+            start[i] = total;
+            length[i] = lengths[rows[i]];
+            y[i] = labels[rows[i]];
+            total += length[i];
+        }
+        double[] v = new double[total];
+        try {
+            for (int i = 0; i < k; i++) {
+                read(ch, pos[rows[i]], 8 * length[i]).asDoubleBuffer().get(v, start[i], length[i]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        PackedDataset X = new PackedDataset(v, start, length, y);
+        return map == null ? X : map.apply(X);
+    }
+
+    /**
+     * Starts a new pass over the chunks in random order and reads the first chunk in the background. A single chunk
+     * draws no random numbers, such that a pass draws the same random numbers as an epoch in memory.
+     */
+    public void rewind(Rand rand) {
+        await();
+        order = numChunks == 1 ? new int[1] : rand.shuffle(numChunks);
+        next = 0;
+        prefetch();
+    }
+
+    /**
+     * Returns the next chunk of the current pass or null at the end of the pass and reads the following chunk in the
+     * background.
+     */
+    public PackedDataset next() {
+        PackedDataset X = await();
+        if (X != null) {
+            prefetch();
+        }
+        return X;
+    }
+
+    /**
+     * Stops the background read and closes the cache file.
+     */
+    @Override
+    public void close() {
+        exec.shutdownNow();
+        try {
+            ch.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void prefetch() {
+        if (order == null || order.length <= next) {
+            return;
+        }
+        int k = order[next++];
+        int s = slot;
+        slot = 1 - slot;
+        pending = exec.submit(() -> load(k, s));
+    }
+
+    // waits for the pending read
+    private PackedDataset await() {
+        if (pending == null) {
+            return null;
+        }
+        try {
+            return pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pending = null;
+        }
+    }
+
+    // reads chunk k into buffer s, held-out time series are skipped
+    private PackedDataset load(int k, int s) throws IOException {
+        int from = k * chunk;
+        int to = Math.min(n, from + chunk);
+        long p0 = pos[from];
+        ByteBuffer buf = bytes[s];
+        buf.clear();
+        buf.limit((int) (pos[to] - p0));
+        read(ch, p0, buf);
+        buf.flip();
+        double[] v = values[s];
+        buf.asDoubleBuffer().get(v, 0, buf.remaining() / 8);
+        int[] start = new int[to - from];
+        int[] length = new int[to - from];
+        int[] y = new int[to - from];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            if (!heldOut[i]) {
+                start[size] = (int) ((pos[i] - p0) / 8);
+                length[size] = lengths[i];
+                y[size] = labels[i];
+                size++;
+            }
+        }
+        PackedDataset X = new PackedDataset(v, Arrays.copyOf(start, size), Arrays.copyOf(length, size),
+                Arrays.copyOf(y, size));
+        return map == null ? X : map.apply(X);
+    }
+
+    private static ByteBuffer read(FileChannel ch, long p, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+        read(ch, p, buf);
+        buf.flip();
+        return buf;
+    }
+
+    private static void read(FileChannel ch, long p, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (ch.read(buf, p + buf.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+}
@@ -1,13 +1,19 @@
 package data;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.RandomAccess;
 
-@SuppressWarnings("serial")
-public class Dataset extends ArrayList<Pattern> {
+/**
+ * Dataset of labeled time series stored as a list of patterns. The number of labels and the maximum length are cached
+ * until the dataset is modified. See PackedDataset for datasets stored in one contiguous buffer.
+ */
+public class Dataset extends AbstractList<Pattern> implements RandomAccess {
 
-    Integer numLabels;
+    private final ArrayList<Pattern> list = new ArrayList<>();
+    int numLabels = -1;                 // cached number of labels (-1 = not computed)
+    int maxlength = -1;                 // cached max length of time series (-1 = not computed)
 
     public Dataset() {
         super();
@@ -24,6 +30,40 @@ public class Dataset extends ArrayList<Pattern> {
         }
     }
 
+    @Override
+    public Pattern get(int i) {
+        return list.get(i);
+    }
+
+    @Override
+    public int size() {
+        return list.size();
+    }
+
+    @Override
+    public Pattern set(int i, Pattern p) {
+        modified();
+        return list.set(i, p);
+    }
+
+    @Override
+    public void add(int i, Pattern p) {
+        modified();
+        list.add(i, p);
+    }
+
+    @Override
+    public Pattern remove(int i) {
+        modified();
+        return list.remove(i);
+    }
+
+    @Override
+    public void clear() {
+        modified();
+        list.clear();
+    }
+
     public double[][] patterns() {
         int n = size();
         double[][] X = new double[n][];
@@ -47,24 +87,45 @@ public class Dataset extends ArrayList<Pattern> {
     }
 
     public int numLabels() {
-        if (numLabels != null) {
-            return numLabels;
-        }
-        HashSet<Integer> labels = new HashSet<>();
-        for (Pattern p : this) {
-            labels.add(p.y);
+        if (numLabels < 0) {
+            numLabels = distinct(labels());
         }
-        numLabels = labels.size();
         return numLabels;
     }
 
     public int maxlength() {
-        int max = 0;
-        for (Pattern p : this) {
-            if (max < p.length()) {
-                max = p.length();
+        if (maxlength < 0) {
+            int max = 0;
+            for (int i = 0; i < size(); i++) {
+                max = Math.max(max, get(i).length());
+            }
+            maxlength = max;
+        }
+        return maxlength;
+    }
+
+    /**
+     * Returns this dataset packed into one contiguous buffer. The values are copied unless the dataset is packed.
+     */
+    public PackedDataset pack() {
+        return new PackedDataset(this);
+    }
+
+    private void modified() {
+        numLabels = -1;
+        maxlength = -1;
+    }
+
+    // number of distinct values of y
+    static int distinct(int[] y) {
+        int[] s = y.clone();
+        Arrays.sort(s);
+        int count = 0;
+        for (int i = 0; i < s.length; i++) {
+            if (i == 0 || s[i - 1] != s[i]) {
+                count++;
             }
         }
-        return max;
+        return count;
     }
 }
@@ -0,0 +1,218 @@
+package data;
+
+import util.Msg;
+
+import java.util.Arrays;
+
+/**
+ * Dataset of labeled time series packed into one contiguous buffer. Time series i occupies the values
+ * values[start(i)],...,values[start(i)+length(i)-1]. Labels are stored in an int[] array and the number of labels and
+ * the maximum length are computed once.
+ *
+ * A packed dataset is immutable. Subsets such as folds are views that share the buffer of values and only store start,
+ * length and label of their time series. WSR and MLSR train on the buffer in place. The patterns returned by get() and
+ * patterns() are copies of the packed time series.
+ */
+public class PackedDataset extends Dataset {
+
+    private final double[] values;      // time series one after another
+    private final int[] start;          // index of first value of time series i
+    private final int[] length;         // length of time series i
+    private final int[] labels;         // class label of time series i
+
+    /**
+     * Packs a data-matrix, where every row starts with a class label followed by a time series.
+     */
+    public PackedDataset(double[][] data) {
+        int n = data.length;
+        start = new int[n];
+        length = new int[n];
+        labels = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            start[i] = total;
+            length[i] = data[i].length - 1;
+            labels[i] = (int) data[i][0];
+            total += length[i];
+        }
+        values = new double[total];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(data[i], 1, values, start[i], length[i]);
+        }
+    }
+
+    /**
+     * Packs the patterns of X.
+     */
+    public PackedDataset(Dataset X) {
+        int n = X.size();
+        start = new int[n];
+        length = new int[n];
+        labels = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            start[i] = total;
+            length[i] = X.get(i).length();
+            labels[i] = X.label(i);
+            total += length[i];
+        }
+        values = new double[total];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(X.get(i).x, 0, values, start[i], length[i]);
+        }
+    }
+
+    /**
+     * Wraps packed time series without copying. The arrays must not be modified afterwards.
+     */
+    public PackedDataset(double[] values, int[] start, int[] length, int[] labels) {
+        if (start.length != length.length || start.length != labels.length) {
+            Msg.error("Error! Incompatible number of time series.");
+        }
+        this.values = values;
+        this.start = start;
+        this.length = length;
+        this.labels = labels;
+    }
+
+    /**
+     * Returns the time series rows[0],...,rows[k-1] of this dataset as a view that shares the buffer of values.
+     */
+    public PackedDataset view(int[] rows) {
+        int k = rows.length;
+        int[] s = new int[k];
+        int[] l = new int[k];
+        int[] y = new int[k];
+        for (int i = 0; i < k; i++) {
+            s[i] = start[rows[i]];
+            l[i] = length[rows[i]];
+            y[i] = labels[rows[i]];
+        }
+        return new PackedDataset(values, s, l, y);
+    }
+
+    /**
+     * Returns the time series from,...,to-1 of this dataset as a view that shares the buffer of values.
+     */
+    public PackedDataset view(int from, int to) {
+        return new PackedDataset(values, Arrays.copyOfRange(start, from, to), Arrays.copyOfRange(length, from, to),
+                Arrays.copyOfRange(labels, from, to));
+    }
+
+    /**
+     * Returns the buffer of values. The buffer is shared and must not be modified.
+     */
+    public double[] values() {
+        return values;
+    }
+
+    /**
+     * Writes the time series of this dataset rounded to single precision into f and returns f, such that time series i
+     * occupies f[start(i)],...,f[start(i)+length(i)-1] as in the buffer of values. A view only rounds its own time
+     * series. A new array is allocated if f is null or shorter than the end of the last time series in the buffer.
+     */
+    public float[] toFloat(float[] f) {
+        int end = 0;
+        for (int i = 0; i < start.length; i++) {
+            end = Math.max(end, start[i] + length[i]);
+        }
+        if (f == null || f.length < end) {
+            f = new float[end];
+        }
+        for (int i = 0; i < start.length; i++) {
+            for (int k = start[i]; k < start[i] + length[i]; k++) {
+                f[k] = (float) values[k];
+            }
+        }
+        return f;
+    }
+
+    public int start(int i) {
+        return start[i];
+    }
+
+    public int length(int i) {
+        return length[i];
+    }
+
+    @Override
+    public Pattern get(int i) {
+        return new Pattern(Arrays.copyOfRange(values, start[i], start[i] + length[i]), labels[i]);
+    }
+
+    @Override
+    public int size() {
+        return labels.length;
+    }
+
+    @Override
+    public Pattern set(int i, Pattern p) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(int i, Pattern p) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Pattern remove(int i) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Returns copies of the time series.
+     */
+    @Override
+    public double[][] patterns() {
+        int n = size();
+        double[][] X = new double[n][];
+        for (int i = 0; i < n; i++) {
+            X[i] = Arrays.copyOfRange(values, start[i], start[i] + length[i]);
+        }
+        return X;
+    }
+
+    /**
+     * Returns the labels. The array is shared and must not be modified.
+     */
+    @Override
+    public int[] labels() {
+        return labels;
+    }
+
+    @Override
+    public int label(int i) {
+        return labels[i];
+    }
+
+    @Override
+    public int numLabels() {
+        if (numLabels < 0) {
+            numLabels = distinct(labels);
+        }
+        return numLabels;
+    }
+
+    @Override
+    public int maxlength() {
+        if (maxlength < 0) {
+            int max = 0;
+            for (int len : length) {
+                max = Math.max(max, len);
+            }
+            maxlength = max;
+        }
+        return maxlength;
+    }
+
+    @Override
+    public PackedDataset pack() {
+        return this;
+    }
+}
@@ -1,35 +1,128 @@
 package esmr;
 
 import data.Dataset;
+import data.PackedDataset;
 import data.Pattern;
+import util.Array;
+import util.Events;
 import util.Msg;
 import util.Options;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
 public abstract class Classifier {
 
     public static final double EPS = 10E-15;
 
+    final List<MetricsListener> listeners = new CopyOnWriteArrayList<>();
+
     public abstract Options getOptions();
 
     public abstract void fit(Dataset X);
 
-    public abstract int predict(Pattern p);
+    /**
+     * Predicts the class label of time series x. Implementations need to be thread-safe for a trained classifier.
+     */
+    public abstract int predict(double[] x);
+
+    /**
+     * Predicts the class label of the time series x[offset],...,x[offset+length-1], such that time series of a packed
+     * dataset need not be copied. The default copies the time series.
+     */
+    public int predict(double[] x, int offset, int length) {
+        return predict(Arrays.copyOfRange(x, offset, offset + length));
+    }
 
     public abstract String getName();
 
+    /**
+     * Adds a listener that receives the metrics of every epoch of fit(). Metrics are only collected if there are
+     * listeners.
+     */
+    public void addListener(MetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    public int predict(Pattern p) {
+        return sampled(p.x);
+    }
+
+    /**
+     * Predicts the class labels of all patterns of X in parallel. Time series of a packed dataset are predicted in
+     * place.
+     */
+    public int[] predict(Dataset X) {
+        int[] y = new int[X.size()];
+        if (X instanceof PackedDataset) {
+            PackedDataset P = (PackedDataset) X;
+            double[] values = P.values();
+            IntStream.range(0, y.length).parallel().forEach(i -> y[i] = sampled(values, P.start(i), P.length(i)));
+            return y;
+        }
+        IntStream.range(0, y.length).parallel().forEach(i -> y[i] = sampled(X.get(i).x));
+        return y;
+    }
+
+    /**
+     * Writes the predicted class label of X[i] into out[i]. Time series are distributed over the threads of the common
+     * fork-join pool.
+     */
+    public void predictInto(double[][] X, int[] out) {
+        IntStream.range(0, X.length).parallel().forEach(i -> out[i] = sampled(X[i]));
+    }
+
+    // predicts x and records its latency as a JFR event for a sample of predictions
+    private int sampled(double[] x) {
+        return sampled(x, 0, x.length);
+    }
+
+    // predicts x[offset],...,x[offset+length-1] and records its latency as a JFR event for a sample of predictions
+    private int sampled(double[] x, int offset, int length) {
+        Events.Prediction event = Events.sample() ? new Events.Prediction() : null;
+        int y = offset == 0 && length == x.length ? predict(x) : predict(x, offset, length);
+        if (event != null) {
+            event.commit(getName(), length, y);
+        }
+        return y;
+    }
+
     public double eval(Dataset X) {
         if (X == null || X.size() == 0) {
             return 0;
         }
+        int[] y = predict(X);
         int err = 0;
-        for (Pattern p : X) {
-            if (p.y != predict(p)) {
+        for (int i = 0; i < y.length; i++) {
+            if (X.label(i) != y[i]) {
                 err++;
             }
         }
         return ((double) err) / X.size();
     }
 
+    /**
+     * Returns the negative log-likelihood of class y given the outputs p of a softmax layer.
+     */
+    static double loss(double[] p, int y) {
+        double max_p = Array.max(p);
+        double sum = 0;
+        for (double val : p) {
+            sum += Math.exp(val - max_p);
+        }
+        double z = Math.exp(p[y] - max_p) / sum;
+        if (z < EPS) {
+            z = EPS;
+        }
+        return -Math.log(z);
+    }
+
     protected final void check(Dataset X) {
         if (X == null || X.size() == 0) {
             Msg.error("Error! Empty dataset!");
@@ -0,0 +1,143 @@
+package esmr;
+
+import util.Tensor;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+
+/**
+ * Evaluates the weights of a training epoch for the monitor. An evaluation returns loss and error of the weights on a
+ * sample of training examples (null = all).
+ *
+ * A synchronous evaluator evaluates the weights on submission. An asynchronous evaluator evaluates a snapshot of the
+ * weights on a background thread, while training continues with the next epoch. Its results lag behind by one
+ * submission: submit() starts the evaluation of the current weights and returns the result of the previous submission.
+ * Two snapshots are used in turn, such that the weights of the last result stay valid until the next submission.
+ */
+final class Evaluator {
+
+    double[] result;                    // loss and error of last evaluation
+    int epoch;                          // epoch of last evaluation
+    Tensor weights;                     // weights of last evaluation
+
+    private final BiFunction<Tensor, int[], double[]> eval;
+    private final ExecutorService exec;
+    private final Tensor[] snapshots = new Tensor[2];
+    private int next;                   // index of next snapshot
+    private final Task[] tasks = new Task[2];   // last evaluation of each snapshot
+    private Future<double[]> pending;   // pending evaluation of snapshot 1 - next
+    private int pendingEpoch;           // epoch of pending evaluation
+
+    Evaluator(BiFunction<Tensor, int[], double[]> eval, boolean async) {
+        this.eval = eval;
+        exec = async ? Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "evaluator");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Submits the weights W of epoch t and returns true if a result is available.
+     */
+    boolean submit(Tensor W, int t, int[] sample) {
+        if (exec == null) {
+            result = eval.apply(W, sample);
+            epoch = t;
+            weights = W;
+            return true;
+        }
+        if (tasks[next] != null) {
+            tasks[next].await();
+        }
+        if (snapshots[next] == null) {
+            snapshots[next] = W.copy();
+        } else {
+            snapshots[next].copy(W);
+        }
+        tasks[next] = new Task(snapshots[next], sample);
+        Future<double[]> f = exec.submit(tasks[next]);
+        boolean done = take();
+        pending = f;
+        pendingEpoch = t;
+        next = 1 - next;
+        return done;
+    }
+
+    /**
+     * Waits for the pending evaluation and returns true if there was one.
+     */
+    boolean take() {
+        if (pending == null) {
+            return false;
+        }
+        try {
+            result = pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        epoch = pendingEpoch;
+        weights = snapshots[1 - next];
+        pending = null;
+        return true;
+    }
+
+    /**
+     * Discards the pending evaluation without waiting for it. The result and weights of the last evaluation are kept.
+     * The evaluation is skipped if it has not started, otherwise its snapshot is not overwritten before it ends.
+     */
+    void clear() {
+        if (pending == null) {
+            return;
+        }
+        tasks[1 - next].discarded = true;
+        pending = null;
+    }
+
+    void shutdown() {
+        if (exec != null) {
+            exec.shutdown();
+        }
+    }
+
+    // evaluation of a snapshot on the background thread, signals its end also if it is skipped or fails
+    private final class Task implements Callable<double[]> {
+
+        final Tensor snapshot;
+        final int[] sample;
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile boolean discarded;     // skips the evaluation if it has not started
+
+        Task(Tensor snapshot, int[] sample) {
+            this.snapshot = snapshot;
+            this.sample = sample;
+        }
+
+        @Override
+        public double[] call() {
+            try {
+                return discarded ? null : eval.apply(snapshot, sample);
+            } finally {
+                done.countDown();
+            }
+        }
+
+        // waits for the end of the evaluation
+        void await() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package esmr;
+
+import java.util.Arrays;
+
+/**
+ * Sparse gradient with respect to a weight tensor of size d0 x d1 x d2. Cell (i, r, s) of the tensor has index
+ * (i * d1 + r) * d2 + s. Indices of touched cells are recorded in the order of their first update, such that reducing
+ * and clearing a gradient only visits these cells.
+ */
+final class Gradient {
+
+    final double[] grad;                // gradient per cell
+    int[] index;                        // indices of touched cells
+    int size;                           // number of touched cells
+    private final boolean[] touched;    // flags touched cells
+
+    Gradient(int length) {
+        grad = new double[length];
+        touched = new boolean[length];
+        index = new int[1024];
+    }
+
+    void add(int k, double g) {
+        if (!touched[k]) {
+            touched[k] = true;
+            if (size == index.length) {
+                index = Arrays.copyOf(index, 2 * size);
+            }
+            index[size++] = k;
+        }
+        grad[k] += g;
+    }
+
+    // adds h to this gradient and clears h
+    void reduce(Gradient h) {
+        for (int l = 0; l < h.size; l++) {
+            int k = h.index[l];
+            add(k, h.grad[k]);
+        }
+        h.clear();
+    }
+
+    void clear() {
+        for (int l = 0; l < size; l++) {
+            int k = index[l];
+            grad[k] = 0;
+            touched[k] = false;
+        }
+        size = 0;
+    }
+}
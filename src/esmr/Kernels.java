@@ -0,0 +1,158 @@
+package esmr;
+
+/**
+ * Dense kernels over contiguous rows of flat tensors.
+ *
+ * The loops are written for the JIT compiler: the ADAM update is element-wise without branches and is compiled to
+ * SIMD instructions, and dot products of four rows run as four independent chains of additions. Every element of the
+ * double precision kernels is computed in the same order as the plain scalar loop, hence results are bit-identical.
+ */
+final class Kernels {
+
+    private Kernels() {
+    }
+
+    /**
+     * ADAM update of w[off],...,w[off+len-1] and its moments with the gradients g[goff],...,g[goff+len-1] divided by
+     * div.
+     */
+    static void adam(double[] w, double[] m1, double[] m2, int off, double[] g, int goff, double div, int len,
+                     double eta, double b1, double b2) {
+        for (int k = 0; k < len; k++) {
+            int o = off + k;
+            double grad = g[goff + k] / div;
+            m1[o] = (b1 * m1[o] + (1 - b1) * grad);
+            m2[o] = (b2 * m2[o] + (1 - b2) * grad * grad);
+            double mean = m1[o] / (1.0 - b1);
+            double var = m2[o] / (1.0 - b2);
+            w[o] -= eta * (mean / (Math.sqrt(var) + 10E-8));
+        }
+    }
+
+    /**
+     * ADAM update of weights and moments stored in single precision, see SingleAdam.
+     */
+    static void adam(float[] w, float[] m1, float[] m2, int off, double[] g, int goff, double div, int len,
+                     double eta, double b1, double b2) {
+        SingleAdam adam = new SingleAdam(eta, b1, b2);
+        float inv = (float) (1.0 / div);
+        for (int k = 0; k < len; k++) {
+            adam.step(w, m1, m2, off + k, (float) g[goff + k] * inv);
+        }
+    }
+
+    /**
+     * ADAM update in single precision. The constants are rounded once and the update is computed in single precision,
+     * such that a row is compiled to SIMD instructions and a cell updated on its own, as in lock-free training, gets
+     * the same value as within a row.
+     */
+    static final class SingleAdam {
+
+        private final float b1;
+        private final float b2;
+        private final float c1;         // 1 - b1
+        private final float c2;         // 1 - b2
+        private final float d1;         // 1 / (1 - b1)
+        private final float d2;         // 1 / (1 - b2)
+        private final float eta;
+
+        SingleAdam(double eta, double b1, double b2) {
+            this.b1 = (float) b1;
+            this.b2 = (float) b2;
+            c1 = (float) (1 - b1);
+            c2 = (float) (1 - b2);
+            d1 = (float) (1.0 / (1.0 - b1));
+            d2 = (float) (1.0 / (1.0 - b2));
+            this.eta = (float) eta;
+        }
+
+        // updates w[o] and its moments with gradient g
+        void step(float[] w, float[] m1, float[] m2, int o, float g) {
+            m1[o] = b1 * m1[o] + c1 * g;
+            m2[o] = b2 * m2[o] + c2 * g * g;
+            float mean = m1[o] * d1;
+            float var = m2[o] * d2;
+            w[o] -= eta * (mean / ((float) Math.sqrt(var) + 10E-8f));
+        }
+    }
+
+    /**
+     * Writes the dot products of the rows w[off + i * stride],... of length n and x[xo],...,x[xo+n-1] into z[i] for
+     * i < m.
+     */
+    static void dots(double[] w, int off, int stride, int m, double[] x, int xo, int n, double[] z) {
+        int i = 0;
+        for (; i + 3 < m; i += 4) {
+            int o0 = off + i * stride;
+            int o1 = o0 + stride;
+            int o2 = o1 + stride;
+            int o3 = o2 + stride;
+            double z0 = 0;
+            double z1 = 0;
+            double z2 = 0;
+            double z3 = 0;
+            for (int j = 0; j < n; j++) {
+                double xj = x[xo + j];
+                z0 += w[o0 + j] * xj;
+                z1 += w[o1 + j] * xj;
+                z2 += w[o2 + j] * xj;
+                z3 += w[o3 + j] * xj;
+            }
+            z[i] = z0;
+            z[i + 1] = z1;
+            z[i + 2] = z2;
+            z[i + 3] = z3;
+        }
+        for (; i < m; i++) {
+            int o = off + i * stride;
+            double zi = 0;
+            for (int j = 0; j < n; j++) {
+                zi += w[o + j] * x[xo + j];
+            }
+            z[i] = zi;
+        }
+    }
+
+    /**
+     * Single precision version of dots() for the time series x.
+     */
+    static void dots(float[] w, int off, int stride, int m, float[] x, float[] z) {
+        dots(w, off, stride, m, x, 0, x.length, z);
+    }
+
+    /**
+     * Single precision version of dots().
+     */
+    static void dots(float[] w, int off, int stride, int m, float[] x, int xo, int n, float[] z) {
+        int i = 0;
+        for (; i + 3 < m; i += 4) {
+            int o0 = off + i * stride;
+            int o1 = o0 + stride;
+            int o2 = o1 + stride;
+            int o3 = o2 + stride;
+            float z0 = 0;
+            float z1 = 0;
+            float z2 = 0;
+            float z3 = 0;
+            for (int j = 0; j < n; j++) {
+                float xj = x[xo + j];
+                z0 += w[o0 + j] * xj;
+                z1 += w[o1 + j] * xj;
+                z2 += w[o2 + j] * xj;
+                z3 += w[o3 + j] * xj;
+            }
+            z[i] = z0;
+            z[i + 1] = z1;
+            z[i + 2] = z2;
+            z[i + 3] = z3;
+        }
+        for (; i < m; i++) {
+            int o = off + i * stride;
+            float zi = 0;
+            for (int j = 0; j < n; j++) {
+                zi += w[o + j] * x[xo + j];
+            }
+            z[i] = zi;
+        }
+    }
+}
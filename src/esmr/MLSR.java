@@ -1,10 +1,19 @@
 package esmr;
 
 import data.Dataset;
-import data.Pattern;
-import util.Array;
+import data.PackedDataset;
+import util.Events;
+import util.Msg;
 import util.Options;
+import util.Parallel;
 import util.Rand;
+import util.Tensor;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * Max-Linear Softmax Regression
@@ -13,13 +22,25 @@ public class MLSR extends Classifier {
 
     Rand rand;                              // random number generator
     Parameter params;                       // parameters
-    double[][][] W;                         // weights
+    Tensor W;                               // weights
+    float[] F;                              // weights in single precision (null = double precision)
     int numLabels;                          // number of class labels
-    double[][] XX;                          // training set
+    PackedDataset XX;                       // training set
+    float[] XF;                             // values of XX in single precision (null = double precision)
     int[] yy;                               // class labels
+    private boolean estimate;               // workers accumulate running estimates in current epoch
+    private final LongAdder lossNanos = new LongAdder();    // time of evaluations since last report
 
     public MLSR(String opts) {
-        rand = Rand.getInstance();
+        this(opts, Rand.getInstance());
+    }
+
+    /**
+     * Creates a classifier that draws its random numbers from rand, e.g. for training several classifiers
+     * concurrently.
+     */
+    public MLSR(String opts, Rand rand) {
+        this.rand = rand;
         params = new Parameter(opts);
     }
 
@@ -34,11 +55,23 @@ public class MLSR extends Classifier {
     }
 
     @Override
-    public int predict(Pattern p) {
+    public int predict(double[] x) {
+        return predict(x, 0, x.length);
+    }
+
+    /**
+     * Predicts the time series x[xo],...,x[xo+n-1] in place.
+     */
+    @Override
+    public int predict(double[] x, int xo, int n) {
+        if (W.d2 < n) {
+            Msg.error("Error! MLSR requires time series of length at most %d: %d.", W.d2, n);
+        }
         int k0 = 0;
         double[] out = new double[numLabels];
+        float[] xf = F == null ? null : single(x, xo, n);
         for (int k = 0; k < numLabels; k++) {
-            double[] result = mult(W[k], p.x);
+            double[] result = xf == null ? mult(W, k, x, xo, n) : mult(W, F, k, xf, 0, n);
             out[k] = result[0];
             if (out[k0] < out[k]) {
                 k0 = k;
@@ -52,87 +85,305 @@ public class MLSR extends Classifier {
 
         // initialize
         check(X);
-        XX = X.patterns();
-        yy = X.labels();
-        numLabels = X.numLabels();
+        F = null;
+        boolean single = params.p == 32;
+        XX = X.pack();
+        XF = single ? XX.toFloat(null) : null;
+        yy = XX.labels();
+        numLabels = XX.numLabels();
 
         // hyper-parameters
         int m = Math.max(1, params.e);      // elasticity
-        double lambda = params.r;                 // weight decay
         double eta = params.lr;                   // initial learning rate
-        double b1 = params.b1;                    // first momentum
-        double b2 = params.b2;                    // second momentum
         int T = params.T;                         // max number of epochs
 
         // sizes
-        int n = X.maxlength();                  // input dimension
+        int n = XX.maxlength();                 // input dimension
         int c = numLabels;                        // number of classes
-        int N = X.size();                       // number of training examples
+        int N = XX.size();                      // number of training examples
+        for (int i = 0; i < N; i++) {
+            if (XX.length(i) != n) {
+                Msg.error("Error! MLSR requires time series of equal length.");
+            }
+        }
 
         // auxiliary variables
-        double[][][] M = new double[c][m][n];       // first moment
-        double[][][] V = new double[c][m][n];       // second moment
-        double[] h = new double[c];                 // values of optimal inner products
-        int[] I = new int[c];                       // indices of optimal inner score
-        double[] z = new double[c];                 // output
+        Tensor M = new Tensor(c, m, n, single);     // first moment
+        Tensor V = new Tensor(c, m, n, single);     // second moment
+
+        // workers process mini-batches (B > 1) or shards of an epoch in lock-free stochastic gradient descent (B = 1)
+        int B = Math.min(params.B, N);                // mini-batch size
+        int numWorkers = Math.min(params.threads, 1 < B ? B : N);
+        ForkJoinPool pool = Parallel.pool(numWorkers);
+        Gradient sum = new Gradient(1 < B ? c * m * n : 0);
+        Worker[] workers = new Worker[numWorkers];
+        for (int k = 0; k < numWorkers; k++) {
+            if (1 < B) {
+                workers[k] = new Worker(c, m, n, new Gradient(c * m * n), null, null);
+            } else {
+                workers[k] = new Worker(c, m, n, null, M, V);
+            }
+        }
 
         // weights
-        W = rand.nextArray(c, m, n, Math.sqrt(n));    // initialize weights
-        double[][][] optW = Array.cp(W);                  // optimal weights
+        W = rand.nextTensor(c, m, n, Math.sqrt(n), single);       // initialize weights
+        if (params.F == 1) {
+            eta = rangeTest(workers, pool, sum, M, V, B);
+        }
+        Tensor optW = W.copy();                                   // optimal weights
 
         // logger
         Monitor monitor = new Monitor(params.T, params.S, params.o);
+        monitor.schedule(params.K, params.s < 1 ? rand.stratified(yy, params.s) : null);
+
+        // evaluation of weights, asynchronous evaluations overlap with the next epoch
+        Evaluator evaluator = new Evaluator((w, sample) -> {
+            long start = System.nanoTime();
+            double[] result = params.E == 0 ? evaluate(w, sample) : estimate(workers);
+            lossNanos.add(System.nanoTime() - start);
+            return result;
+        }, params.A == 1 && params.E == 0);
+
+        // metrics
+        int restarts = 0;                           // number of restarts with decreased learning rate
+        lossNanos.reset();
+        long allocated = listeners.isEmpty() ? -1 : Metrics.allocated();
 
         for (int t = 1; t <= T && monitor.proceed(); t++) {
             int[] f = rand.shuffle(N);
-            for (int i = 0; i < N; i++) {
+            estimate = params.E == 1 && monitor.evaluate(t);
+            Events.Epoch event = Events.on() ? new Events.Epoch() : null;
+            long start = System.nanoTime();
+            epoch(f, workers, pool, sum, M, V, B, eta);
+            long trained = System.nanoTime();
+            if (event != null) {
+                event.commit(t, N, eta);
+            }
+            monitor.speed(N, trained - start);
+            int epoch = t;
+
+            if (monitor.evaluate(t) && evaluator.submit(W, t, monitor.sample())) {
+
+                // check convergence of evaluated epoch
+                monitor.log(evaluator.result, evaluator.epoch);
+                if (monitor.hasImproved[1]) {
+                    Events.Snapshot snapshot = Events.on() ? new Events.Snapshot() : null;
+                    optW.copy(evaluator.weights);
+                    if (snapshot != null) {
+                        snapshot.commit(evaluator.epoch, optW);
+                    }
+                }
+
+                // decrease learning rate if necessary
+                if (monitor.decreaseLearningRate(evaluator.epoch, params.W == 1)) {
+                    Events.learningRate(evaluator.epoch, eta, eta / 2.0);
+                    eta /= 2.0;
+                    if (params.W == 0) {
+                        evaluator.clear();
+                        t = 0;
+                        W = rand.nextTensor(c, m, n, Math.sqrt(n), single);
+                    }
+                    restarts++;
+                }
+            }
+
+            // report metrics of epoch
+            if (!listeners.isEmpty()) {
+                long bytes = Metrics.allocated();
+                Metrics metrics = new Metrics(epoch, trained - start, lossNanos.sumThenReset(),
+                        System.nanoTime() - trained, N, (long) N * c * m * n, 0, 0,
+                        allocated < 0 || bytes < 0 ? -1 : Math.max(0, bytes - allocated), restarts);
+                allocated = bytes;
+                for (MetricsListener listener : listeners) {
+                    listener.epoch(metrics);
+                }
+            }
+        }
+        if (evaluator.take()) {
+            monitor.log(evaluator.result, evaluator.epoch);
+            if (monitor.hasImproved[1]) {
+                Events.Snapshot snapshot = Events.on() ? new Events.Snapshot() : null;
+                optW.copy(evaluator.weights);
+                if (snapshot != null) {
+                    snapshot.commit(evaluator.epoch, optW);
+                }
+            }
+        }
+        evaluator.shutdown();
+        Parallel.shutdown(pool);
+        W = optW;
+        prepare();
+    }
+
+    // processes the examples of XX in the order f in mini-batches of size B or in lock-free stochastic gradient descent
+    private void epoch(int[] f, Worker[] workers, ForkJoinPool pool, Gradient sum, Tensor M, Tensor V, int B,
+                       double eta) {
+        double b1 = params.b1;
+        double b2 = params.b2;
+        int n = W.d2;
+        int numWorkers = workers.length;
+        int N = f.length;
+        for (int i = 0; 1 < B && i < N; i += B) {
+
+            // mean gradient of next mini-batch
+            int size = Math.min(B, N - i);
+            for (int k = 0; k < numWorkers; k++) {
+                workers[k].set(f, i + k * size / numWorkers, i + (k + 1) * size / numWorkers, eta);
+            }
+            Parallel.invokeAll(pool, Arrays.asList(workers));
+            for (Worker worker : workers) {
+                sum.reduce(worker.grad);
+            }
+
+            // update (workers touch whole rows, hence the touched cells are runs of n cells starting at a row)
+            for (int l = 0; l < sum.size; l += n) {
+                int k = sum.index[l];
+                if (W.isSingle()) {
+                    Kernels.adam(W.fdata, M.fdata, V.fdata, k, sum.grad, k, size, n, eta, b1, b2);
+                } else {
+                    Kernels.adam(W.data, M.data, V.data, k, sum.grad, k, size, n, eta, b1, b2);
+                }
+            }
+            sum.clear();
+        }
+        if (B == 1) {
+            for (int k = 0; k < numWorkers; k++) {
+                workers[k].set(f, k * N / numWorkers, (k + 1) * N / numWorkers, eta);
+            }
+            Parallel.invokeAll(pool, Arrays.asList(workers));
+        }
+    }
+
+    /*
+     * Returns the initial learning rate selected by a range test on the training examples starting from the current
+     * weights. Weights and moments are restored afterwards.
+     */
+    private double rangeTest(Worker[] workers, ForkJoinPool pool, Gradient sum, Tensor M, Tensor V, int B) {
+        Tensor W0 = W.copy();
+        int N = XX.size();
+        estimate = true;
+        double eta = RangeTest.apply(N, Math.min(N, Math.max(B, RangeTest.SIZE)), rand, (f, lr) -> {
+            epoch(f, workers, pool, sum, M, V, B, lr);
+            double loss = 0;
+            for (Worker worker : workers) {
+                loss += worker.loss;
+                worker.loss = 0;
+                worker.errors = 0;
+            }
+            return loss / f.length;
+        });
+        estimate = false;
+        W = W0;
+        M.clear();
+        V.clear();
+        return eta;
+    }
+
+    // prepares predict() for the current weights
+    private void prepare() {
+        F = W.fdata;
+    }
+
+    /*
+     * Processes the examples f[from],...,f[to-1]. In a mini-batch, a worker only reads the weights and accumulates the
+     * gradients, which are reduced in a fixed order. Otherwise, a worker updates weights and moments after each
+     * example. Several such workers run Hogwild: they share the weights and moments without locks. Conflicts are rare,
+     * because an example only updates the active row of each class. With "-E 1" a worker also accumulates the loss
+     * and errors of its examples before their updates.
+     */
+    private final class Worker implements Callable<Void> {
+
+        final int m;
+        final int n;
+        final double[] h;                   // values of optimal inner products
+        final int[] I;                      // indices of optimal inner score
+        final double[] g;                   // gradient of active row
+        final Gradient grad;                // gradient of mini-batch
+        final Tensor M;                     // first moment
+        final Tensor V;                     // second moment
+        int[] f;
+        int from;
+        int to;
+        double eta;
+        double loss;                        // running loss
+        int errors;                         // running number of errors
+
+        Worker(int c, int m, int n, Gradient grad, Tensor M, Tensor V) {
+            this.m = m;
+            this.n = n;
+            this.grad = grad;
+            this.M = M;
+            this.V = V;
+            h = new double[c];
+            I = new int[c];
+            g = new double[n];
+        }
+
+        void set(int[] f, int from, int to, double eta) {
+            this.f = f;
+            this.from = from;
+            this.to = to;
+            this.eta = eta;
+        }
+
+        @Override
+        public Void call() {
+            double lambda = params.r;
+            double b1 = params.b1;
+            double b2 = params.b2;
+            int c = numLabels;
+            double[] x = XX.values();
+            float[] xf = XF;
+            for (int i = from; i < to; i++) {
 
                 // get next example
-                double[] x = XX[f[i]];
+                int xo = XX.start(f[i]);
 
                 // compute output
+                float[] wf = W.fdata;
                 int jmax = 0;
                 double[] res;
                 for (int j = 0; j < c; j++) {
-                    res = mult(W[j], x);
+                    res = wf == null ? mult(W, j, x, xo, n) : mult(W, wf, j, xf, xo, n);
                     h[j] = res[0];
                     I[j] = (int) res[1];
                     if (h[jmax] < h[j]) {
                         jmax = j;
                     }
                 }
-                z = softmax(h, h[jmax]);
+                double[] z = softmax(h, h[jmax]);
+                if (estimate) {
+                    loss += loss(h, yy[f[i]]);
+                    errors += jmax == yy[f[i]] ? 0 : 1;
+                }
 
                 // update
                 double[] delta = derivative(z, yy[f[i]]);
+                double[] w = W.data;
                 for (int j = 0; j < c; j++) {
-                    int j0 = I[j];
-                    double[] w = W[j][j0];
-                    for (int k = 0; k < n; k++) {
-                        double grad = delta[j] * x[k] + lambda * w[k];
-                        M[j][j0][k] = (b1 * M[j][j0][k] + (1 - b1) * grad);
-                        V[j][j0][k] = (b2 * V[j][j0][k] + (1 - b2) * grad * grad);
-                        double mean = M[j][j0][k] / (1.0 - b1);
-                        double var = V[j][j0][k] / (1.0 - b2);
-                        w[k] -= eta * (mean / (Math.sqrt(var) + 10E-8));
+                    int offset = W.index(j, I[j]);
+                    if (wf == null) {
+                        for (int k = 0; k < n; k++) {
+                            g[k] = delta[j] * x[xo + k] + lambda * w[offset + k];
+                        }
+                    } else {
+                        for (int k = 0; k < n; k++) {
+                            g[k] = delta[j] * xf[xo + k] + lambda * wf[offset + k];
+                        }
+                    }
+                    if (grad != null) {
+                        for (int k = 0; k < n; k++) {
+                            grad.add(offset + k, g[k]);
+                        }
+                    } else if (wf == null) {
+                        Kernels.adam(w, M.data, V.data, offset, g, 0, 1.0, n, eta, b1, b2);
+                    } else {
+                        Kernels.adam(wf, M.fdata, V.fdata, offset, g, 0, 1.0, n, eta, b1, b2);
                     }
                 }
             }
-
-            // check convergence
-            monitor.log(new double[]{loss(z), 100 * eval(X)}, t);
-            if (monitor.hasImproved[1]) {
-                optW = Array.cp(W);
-            }
-
-            // decrease learning rate if necessary
-            if (monitor.decreaseLearningRate(t)) {
-                t = 0;
-                eta /= 2.0;
-                W = rand.nextArray(c, m, n, Math.sqrt(n));
-            }
+            return null;
         }
-        W = optW;
     }
 
     private double[] softmax(double[] p, double max_p) {
@@ -159,40 +410,82 @@ public class MLSR extends Classifier {
         return d;
     }
 
-    private double loss(double[] p) {
-        int n = p.length;
-        int N = XX.length;
+    // returns the running loss and error rate in percent accumulated by the workers in the last epoch
+    private double[] estimate(Worker[] workers) {
+        int N = XX.size();
         double loss = 0;
-        for (int i = 0; i < N; i++) {
+        int errors = 0;
+        for (Worker worker : workers) {
+            loss += worker.loss;
+            errors += worker.errors;
+            worker.loss = 0;
+            worker.errors = 0;
+        }
+        return new double[]{loss / N, 100.0 * errors / N};
+    }
+
+    /*
+     * Returns the loss and the error rate in percent of W on the training examples in sample (null = all) in one pass.
+     * Weights in single precision are evaluated on the training examples in single precision.
+     */
+    private double[] evaluate(Tensor W, int[] sample) {
+        float[] wf = W.fdata;
+        int N = sample == null ? XX.size() : sample.length;
+        double[] x = XX.values();
+        double[] loss = new double[N];
+        boolean[] wrong = new boolean[N];
+        IntStream.range(0, N).parallel().forEach(e -> {
+            int i = sample == null ? e : sample[e];
+            double[] p = new double[numLabels];
+            int xo = XX.start(i);
+            int xn = XX.length(i);
             for (int j = 0; j < numLabels; j++) {
-                double[] prod = mult(W[j], XX[i]);
-                p[j] = prod[0];
+                p[j] = wf == null ? mult(W, j, x, xo, xn)[0] : mult(W, wf, j, XF, xo, xn)[0];
             }
-            double sum = 0;
-            double max_p = Array.max(p);
-            for (int j = 0; j < n; j++) {
-                sum += Math.exp(p[j] - max_p);
-            }
-            double z = Math.exp(p[yy[i]] - max_p) / sum;
-            if (z < EPS) {
-                z = EPS;
+            wrong[e] = argmax(p) != yy[i];
+            loss[e] = loss(p, yy[i]);
+        });
+        double sum = 0;
+        int errors = 0;
+        for (int i = 0; i < N; i++) {
+            sum += loss[i];
+            errors += wrong[i] ? 1 : 0;
+        }
+        return new double[]{sum / N, 100.0 * errors / N};
+    }
+
+    // index of the first maximum of p
+    private static int argmax(double[] p) {
+        int k0 = 0;
+        for (int k = 1; k < p.length; k++) {
+            if (p[k0] < p[k]) {
+                k0 = k;
             }
-            loss -= Math.log(z);
         }
-        return loss / N;
+        return k0;
     }
 
-    // returns max-value and index of active function
-    private double[] mult(double[][] W, double[] x) {
-        int m = W.length;
-        int n = x.length;
+    // returns max-value and index of active function of class c for time series x[xo],...,x[xo+n-1]
+    private double[] mult(Tensor W, int c, double[] x, int xo, int n) {
+        int m = W.d1;
         double[] z = new double[m];
+        Kernels.dots(W.data, W.offset(c), W.d2, m, x, xo, n, z);
         int i0 = 0;
-        for (int i = 0; i < m; i++) {
-            z[i] = 0;
-            for (int j = 0; j < n; j++) {
-                z[i] += W[i][j] * x[j];
+        for (int i = 1; i < m; i++) {
+            if (z[i0] < z[i]) {
+                i0 = i;
             }
+        }
+        return new double[]{z[i0], i0};
+    }
+
+    // returns max-value and index of active function of class c in single precision F of W for x[xo],...,x[xo+n-1]
+    private double[] mult(Tensor W, float[] F, int c, float[] x, int xo, int n) {
+        int m = W.d1;
+        float[] z = new float[m];
+        Kernels.dots(F, W.offset(c), W.d2, m, x, xo, n, z);
+        int i0 = 0;
+        for (int i = 1; i < m; i++) {
             if (z[i0] < z[i]) {
                 i0 = i;
             }
@@ -200,4 +493,12 @@ public class MLSR extends Classifier {
         return new double[]{z[i0], i0};
     }
 
+    private static float[] single(double[] x, int xo, int n) {
+        float[] y = new float[n];
+        for (int j = 0; j < n; j++) {
+            y[j] = (float) x[xo + j];
+        }
+        return y;
+    }
+
 }
@@ -0,0 +1,117 @@
+package esmr;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Telemetry of a training epoch reported to the listeners of a classifier. Wall times are split into three phases:
+ *      train   pass over the training set
+ *      loss    computation of loss and error by the evaluator; with "-A 1" the evaluator runs on a background thread
+ *              and the time overlaps the next epoch
+ *      eval    time of the training thread spent on evaluation, i.e. submitting (or waiting for) the evaluation,
+ *              checking convergence and keeping the best weights; with "-A 0" it includes the loss phase
+ * The loss phase of an epoch is the time of the evaluations finished during the epoch, which lag behind by one
+ * evaluation for asynchronous evaluation.
+ *
+ * Metrics are collected per epoch by counters of the workers, such that the training loop neither formats nor
+ * synchronizes. Allocated bytes are summed over all live threads of the JVM and are -1 if the JVM does not measure
+ * allocations per thread. For MLSR, cells are the multiply-adds of the dot products and there are no warping paths.
+ */
+public final class Metrics {
+
+    private final int epoch;            // epoch
+    private final long trainNanos;      // wall time of training pass
+    private final long lossNanos;       // time of loss and error evaluations
+    private final long evalNanos;       // wall time of evaluation on training thread
+    private final int examples;         // number of training examples processed
+    private final long cells;           // number of cells of warped products computed in training pass
+    private final long paths;           // number of products computed in training pass
+    private final long pathLength;      // sum of lengths of optimal warping paths
+    private final long allocated;       // bytes allocated during epoch (-1 = not measured)
+    private final int restarts;         // number of restarts with decreased learning rate so far
+
+    Metrics(int epoch, long trainNanos, long lossNanos, long evalNanos, int examples, long cells, long paths,
+            long pathLength, long allocated, int restarts) {
+        this.epoch = epoch;
+        this.trainNanos = trainNanos;
+        this.lossNanos = lossNanos;
+        this.evalNanos = evalNanos;
+        this.examples = examples;
+        this.cells = cells;
+        this.paths = paths;
+        this.pathLength = pathLength;
+        this.allocated = allocated;
+        this.restarts = restarts;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    public double trainSeconds() {
+        return 1E-9 * trainNanos;
+    }
+
+    public double lossSeconds() {
+        return 1E-9 * lossNanos;
+    }
+
+    public double evalSeconds() {
+        return 1E-9 * evalNanos;
+    }
+
+    public int examples() {
+        return examples;
+    }
+
+    public double examplesPerSecond() {
+        return trainNanos <= 0 ? 0 : examples / (1E-9 * trainNanos);
+    }
+
+    public long cells() {
+        return cells;
+    }
+
+    public double cellsPerSecond() {
+        return trainNanos <= 0 ? 0 : cells / (1E-9 * trainNanos);
+    }
+
+    /**
+     * Returns the mean length of the optimal warping paths of the training pass.
+     */
+    public double pathLength() {
+        return paths == 0 ? 0 : ((double) pathLength) / paths;
+    }
+
+    public long allocatedBytes() {
+        return allocated;
+    }
+
+    public int restarts() {
+        return restarts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("epoch %d  train %.3fs  loss %.3fs  eval %.3fs  %.1f ex/s  %.3e cells/s  path %.1f  "
+                        + "alloc %d B  restarts %d", epoch, trainSeconds(), lossSeconds(), evalSeconds(),
+                examplesPerSecond(), cellsPerSecond(), pathLength(), allocated, restarts);
+    }
+
+    // returns the bytes allocated by all live threads so far or -1 if allocations are not measured
+    static long allocated() {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (!(mx instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) mx;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long sum = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            sum += Math.max(0, bytes);
+        }
+        return sum;
+    }
+}
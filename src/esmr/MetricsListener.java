@@ -0,0 +1,11 @@
+package esmr;
+
+/**
+ * Receives the metrics of every training epoch. Listeners are called on the training thread after an epoch and should
+ * return quickly.
+ */
+@FunctionalInterface
+public interface MetricsListener {
+
+    void epoch(Metrics m);
+}
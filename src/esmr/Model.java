@@ -0,0 +1,192 @@
+package esmr;
+
+import data.Dataset;
+import util.Msg;
+import util.Options;
+import util.Tensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Trained classifier loaded from a binary model file. The weights are memory-mapped and scored directly from the
+ * mapped region, such that processes loading the same file share one copy in the page cache.
+ *
+ * File format (version 1, little-endian):
+ *      int         magic number "ESMR"
+ *      int         version
+ *      int         type of classifier: 0 = warped softmax regression, 1 = max-linear softmax regression
+ *      int         d0, d1, d2: number of classes, elasticity, length of weight rows
+ *      int         number of bytes of options
+ *      byte[]      options in UTF-8, padded with zeros to a multiple of 8 bytes
+ *      double[]    weights of size d0 x d1 x d2, cell (i, r, s) at index (i * d1 + r) * d2 + s
+ *
+ * Models are scored in double precision and without pruning of classes. Predictions are the same as those of the
+ * classifier in double precision.
+ */
+public final class Model extends Classifier {
+
+    static final int MAGIC = 0x524D5345;    // "ESMR" in little-endian byte order
+    static final int VERSION = 1;
+    static final int HEADER = 28;           // number of bytes of header without options
+
+    private final int type;                 // type of classifier
+    private final int d0;                   // number of labels
+    private final int d1;                   // elasticity
+    private final int d2;                   // length of weight rows
+    private final Options opts;             // options of classifier
+    private final DoubleBuffer W;           // mapped weights
+    private final ThreadLocal<WarpedProduct> ws;
+
+    private Model(int type, int d0, int d1, int d2, Options opts, DoubleBuffer W) {
+        this.type = type;
+        this.d0 = d0;
+        this.d1 = d1;
+        this.d2 = d2;
+        this.opts = opts;
+        this.W = W;
+        double window = opts.containsKey("-w") ? opts.getDouble("-w") : 1.0;
+        ws = ThreadLocal.withInitial(() -> new WarpedProduct(d1, d2, window));
+    }
+
+    /**
+     * Writes the weights and options of a trained WSR or MLSR to a model file. Weights trained in single precision
+     * are written in double precision.
+     */
+    public static void save(Classifier clf, String file) {
+        int type;
+        Tensor W;
+        if (clf instanceof WSR) {
+            type = 0;
+            W = ((WSR) clf).W;
+        } else if (clf instanceof MLSR) {
+            type = 1;
+            W = ((MLSR) clf).W;
+        } else {
+            type = -1;
+            W = null;
+            Msg.error("Error! Unsupported classifier: %s.", clf.getName());
+        }
+        if (W == null) {
+            Msg.error("Error! Classifier is not trained.");
+        }
+        byte[] options = clf.getOptions().toString().getBytes(StandardCharsets.UTF_8);
+        int offset = align(HEADER + options.length);
+        ByteBuffer buf = ByteBuffer.allocate(offset + 8 * W.size()).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(type);
+        buf.putInt(W.d0).putInt(W.d1).putInt(W.d2);
+        buf.putInt(options.length).put(options);
+        buf.position(offset);
+        DoubleBuffer db = buf.asDoubleBuffer();
+        if (W.isSingle()) {
+            for (float v : W.fdata) {
+                db.put(v);
+            }
+        } else {
+            db.put(W.data);
+        }
+        buf.rewind();
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        } catch (IOException e) {
+            Msg.error("Error! Cannot write model %s: %s", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Memory-maps a model file.
+     */
+    public static Model load(String file) {
+        ByteBuffer buf = null;
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            Msg.error("Error! Cannot read model %s: %s", file, e.getMessage());
+        }
+        if (buf.remaining() < HEADER || buf.getInt() != MAGIC) {
+            Msg.error("Error! Not a model file: %s.", file);
+        }
+        int version = buf.getInt();
+        if (version != VERSION) {
+            Msg.error("Error! Unsupported version %d of model %s.", version, file);
+        }
+        int type = buf.getInt();
+        int d0 = buf.getInt();
+        int d1 = buf.getInt();
+        int d2 = buf.getInt();
+        int len = buf.getInt();
+        if (type < 0 || 1 < type || d0 < 1 || d1 < 1 || d2 < 1 || len < 0
+                || buf.capacity() != align(HEADER + len) + 8L * d0 * d1 * d2) {
+            Msg.error("Error! Corrupt model file: %s.", file);
+        }
+        byte[] options = new byte[len];
+        buf.get(options);
+        buf.position(align(HEADER + len));
+        DoubleBuffer W = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        return new Model(type, d0, d1, d2, new Options(new String(options, StandardCharsets.UTF_8)), W);
+    }
+
+    @Override
+    public Options getOptions() {
+        return opts;
+    }
+
+    @Override
+    public String getName() {
+        return type == 0 ? "Warped Softmax Regression (model)" : "Max-Linear Softmax Regression (model)";
+    }
+
+    @Override
+    public void fit(Dataset X) {
+        Msg.error("Error! A loaded model cannot be trained.");
+    }
+
+    @Override
+    public int predict(double[] x) {
+        if (type == 1 && d2 < x.length) {
+            Msg.error("Error! MLSR requires time series of length at most %d: %d.", d2, x.length);
+        }
+        int i0 = 0;
+        double z0 = score(0, x);
+        for (int i = 1; i < d0; i++) {
+            double z = score(i, x);
+            if (z0 < z) {
+                i0 = i;
+                z0 = z;
+            }
+        }
+        return i0;
+    }
+
+    // output of class i for time series x
+    private double score(int i, double[] x) {
+        int off = i * d1 * d2;
+        if (type == 0) {
+            return ws.get().product(W, off, d1, d2, x);
+        }
+        double max = 0;
+        for (int r = 0; r < d1; r++, off += d2) {
+            double z = 0;
+            for (int j = 0; j < x.length; j++) {
+                z += W.get(off + j) * x[j];
+            }
+            if (r == 0 || max < z) {
+                max = z;
+            }
+        }
+        return max;
+    }
+
+    private static int align(int bytes) {
+        return (bytes + 7) & ~7;
+    }
+}
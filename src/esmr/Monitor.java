@@ -1,7 +1,16 @@
 package esmr;
 
+import util.Events;
+
 import java.util.Arrays;
 
+/**
+ * Tracks loss and error for early stopping. Evaluations can be scheduled every few epochs on a fixed sample of the
+ * training set. Near convergence, that is, once the number of epochs without improvement reaches half of a stopping
+ * threshold, the monitor switches to evaluating the full training set after every epoch. Since errors of the sample and
+ * of the full set are not comparable, the minimum errors are reset on switching. Epochs without improvement are counted
+ * in epochs, not in evaluations.
+ */
 public class Monitor {
 
     private static final int NUM_ERRS = 2;
@@ -14,6 +23,11 @@ public class Monitor {
     int[] numStable;
     boolean[] hasImproved;
     int verbosity;
+    double speed;                       // training examples per second
+    int every = 1;                      // number of epochs between evaluations before convergence
+    int[] sample;                       // examples evaluated before convergence (null = all)
+    boolean full = true;                // evaluates all examples after every epoch
+    int lastEpoch;                      // last evaluated epoch
 
     Monitor(int maxEpochs, int maxStable, int verbosity) {
         this.maxEpochs = maxEpochs;
@@ -25,6 +39,25 @@ public class Monitor {
         Arrays.fill(minErr, Double.POSITIVE_INFINITY);
     }
 
+    /**
+     * Evaluates every given number of epochs on the given examples (null = all) until convergence is near.
+     */
+    void schedule(int every, int[] sample) {
+        this.every = every;
+        this.sample = sample;
+        full = every == 1 && sample == null;
+    }
+
+    // returns true if epoch t is evaluated
+    boolean evaluate(int t) {
+        return full || t % every == 0 || t == maxEpochs;
+    }
+
+    // returns the examples to be evaluated (null = all)
+    int[] sample() {
+        return full ? null : sample;
+    }
+
     void log(double[] error, int t) {
         epoch = t;
         err = error;
@@ -34,11 +67,22 @@ public class Monitor {
                 numStable[i] = 0;
                 hasImproved[i] = true;
             } else {
-                numStable[i]++;
+                numStable[i] += t - lastEpoch;
                 hasImproved[i] = false;
             }
         }
+        lastEpoch = t;
+        Events.evaluation(t, err, minErr, full);
         info();
+        if (!full && (2 * numStable[0] >= maxStable || 2 * numStable[1] >= 0.1 * maxEpochs || !proceed())) {
+            full = true;
+            Arrays.fill(minErr, Double.POSITIVE_INFINITY);
+            Arrays.fill(numStable, 0);
+        }
+    }
+
+    void speed(int numExamples, long nanos) {
+        speed = nanos <= 0 ? 0 : numExamples / (1E-9 * nanos);
     }
 
     boolean proceed() {
@@ -59,14 +103,25 @@ public class Monitor {
         }
         String sErr = toString(err, "%7.4f ");
         String sMinErr = toString(minErr, "%7.4f ");
-        System.out.printf("%5d  %s  %s  %n", epoch, sErr, sMinErr);
+        System.out.printf("%5d  %s  %s  %10.1f ex/s%n", epoch, sErr, sMinErr, speed);
     }
 
-    boolean decreaseLearningRate(int t) {
+    /**
+     * Returns true if the learning rate is to be decreased at evaluated epoch t, i.e. if the loss has not improved
+     * within the first 20 epochs. Minimum errors are reset, such that the next decrease requires a new plateau. A
+     * cold restart trains new weights from epoch 0, hence also the schedule of evaluations is reset. A warm restart
+     * continues training of the current weights.
+     */
+    boolean decreaseLearningRate(int t, boolean warm) {
         boolean decrease = t < 20 && 0 < numStable[0];
-        if (decrease) {
+        if (decrease && warm) {
+            Arrays.fill(minErr, Double.POSITIVE_INFINITY);
+            Arrays.fill(numStable, 0);
+        } else if (decrease) {
             Arrays.fill(minErr, Double.POSITIVE_INFINITY);
             Arrays.fill(numStable, 0);
+            full = every == 1 && sample == null;
+            lastEpoch = 0;
         }
         return decrease;
     }
@@ -13,12 +13,29 @@ class Parameter {
     double lr = 0.001;                  // initial learning rate
     double b1 = 0.9;                    // first momentum
     double b2 = 0.99;                   // second momentum
+    int F = 0;                          // 1 = selects initial learning rate by a range test
+    int W = 0;                          // 1 = decreases learning rate without resetting weights and moments
 
     //*** regularization ***********************************************************************************************
     int e = 3;                          // inner elasticity (max-lin)
+    double w = 1.0;                     // warping window (fraction of length)
     int R = 0;                          // type of regularization
     double r = 0.0;                     // regularization parameter
 
+    //*** parallelization **********************************************************************************************
+    int B = 1;                          // mini-batch size
+    int threads = 1;                    // number of worker threads
+    int L = 0;                          // min number of cells for class-parallel prediction (0 = off)
+
+    //*** precision ****************************************************************************************************
+    int p = 64;                         // floating-point precision of training and predictions (32 or 64 bits)
+
+    //*** evaluation ***************************************************************************************************
+    int E = 0;                          // 0 = loss and error after each epoch, 1 = running estimates of training pass
+    int K = 1;                          // number of epochs between evaluations before convergence
+    double s = 1.0;                     // fraction of training set evaluated before convergence (stratified)
+    int A = 0;                          // 1 = evaluates snapshots of weights asynchronously to training
+
     //*** termination **************************************************************************************************
     int T = 1000;                       // maximum number of epochs
     int S = 1000;                       // maximum number of epochs without improvement
@@ -60,6 +77,20 @@ class Parameter {
                 error(flag, b2);
             }
         }
+        flag = "-F";
+        if (opts.containsKey(flag)) {
+            F = opts.getInt(flag);
+            if (F != 0 && F != 1) {
+                error(flag, F);
+            }
+        }
+        flag = "-W";
+        if (opts.containsKey(flag)) {
+            W = opts.getInt(flag);
+            if (W != 0 && W != 1) {
+                error(flag, W);
+            }
+        }
         flag = "-e";
         if (opts.containsKey(flag)) {
             e = opts.getInt(flag);
@@ -67,6 +98,13 @@ class Parameter {
                 error(flag, e);
             }
         }
+        flag = "-w";
+        if (opts.containsKey(flag)) {
+            w = opts.getDouble(flag);
+            if (w <= 0) {
+                error(flag, w);
+            }
+        }
         flag = "-R";
         if (opts.containsKey(flag)) {
             R = opts.getInt(flag);
@@ -78,6 +116,62 @@ class Parameter {
                 error(flag, r);
             }
         }
+        flag = "-B";
+        if (opts.containsKey(flag)) {
+            B = opts.getInt(flag);
+            if (B < 1) {
+                error(flag, B);
+            }
+        }
+        flag = "-threads";
+        if (opts.containsKey(flag)) {
+            threads = opts.getInt(flag);
+            if (threads < 1) {
+                error(flag, threads);
+            }
+        }
+        flag = "-L";
+        if (opts.containsKey(flag)) {
+            L = opts.getInt(flag);
+            if (L < 0) {
+                error(flag, L);
+            }
+        }
+        flag = "-p";
+        if (opts.containsKey(flag)) {
+            p = opts.getInt(flag);
+            if (p != 32 && p != 64) {
+                error(flag, p);
+            }
+        }
+        flag = "-E";
+        if (opts.containsKey(flag)) {
+            E = opts.getInt(flag);
+            if (E != 0 && E != 1) {
+                error(flag, E);
+            }
+        }
+        flag = "-K";
+        if (opts.containsKey(flag)) {
+            K = opts.getInt(flag);
+            if (K < 1) {
+                error(flag, K);
+            }
+        }
+        flag = "-s";
+        if (opts.containsKey(flag)) {
+            s = opts.getDouble(flag);
+            if (s <= 0 || 1 < s) {
+                error(flag, s);
+            }
+        }
+        flag = "-A";
+        if (opts.containsKey(flag)) {
+            A = opts.getInt(flag);
+            if (A != 0 && A != 1) {
+                error(flag, A);
+            }
+        }
         flag = "-T";
         if (opts.containsKey(flag)) {
             T = opts.getInt(flag);
@@ -104,14 +198,14 @@ class Parameter {
         return opts;
     }
 
-    Regularizer getRegularizer(double[][] w) {
+    Regularizer getRegularizer() {
         switch (R) {
             case 0:
                 return new Zero();
             case 1:
-                return new L1(w);
+                return new L1();
             case 2:
-                return new L2(w);
+                return new L2();
             default:
                 Msg.error("Error! Unknown type of regularizer: %d.", R);
         }
@@ -123,9 +217,20 @@ class Parameter {
         opts.put("-l", Double.toString(lr));
         opts.put("-b1", Double.toString(b1));
         opts.put("-b2", Double.toString(b2));
+        opts.put("-F", Integer.toString(F));
+        opts.put("-W", Integer.toString(W));
         opts.put("-e", Integer.toString(e));
+        opts.put("-w", Double.toString(w));
         opts.put("-R", Integer.toString(R));
         opts.put("-r", Double.toString(r));
+        opts.put("-B", Integer.toString(B));
+        opts.put("-threads", Integer.toString(threads));
+        opts.put("-L", Integer.toString(L));
+        opts.put("-p", Integer.toString(p));
+        opts.put("-E", Integer.toString(E));
+        opts.put("-K", Integer.toString(K));
+        opts.put("-s", Double.toString(s));
+        opts.put("-A", Integer.toString(A));
         opts.put("-T", Integer.toString(T));
         opts.put("-S", Integer.toString(S));
         opts.put("-o", Integer.toString(o));
@@ -137,12 +242,29 @@ class Parameter {
                 + "-l    <double> : initial learning rate (default " + lr + ")%n"
                 + "-b1   <double> : decay rate >= 0 (default " + b1 + ")%n"
                 + "-b2   <double> : decay rate >= 0 (default " + b2 + ")%n"
+                + "-F    <int>    : 1 = selects initial learning rate by a range test (default " + F + ")%n"
+                + "-W    <int>    : learning rate decrease (default " + W + ")%n"
+                + "         0 -- restarts from new random weights %n"
+                + "         1 -- warm restart, keeps weights and moments %n"
                 + "-e    <int>    : elasticity > 0 (default " + e + ")%n"
+                + "-w    <double> : warping window > 0, fraction of length (default " + w + ")%n"
                 + "-R    <int>    : type of regularization (default " + R + ")%n"
                 + "         0 -- void %n"
                 + "         1 -- L1 %n"
                 + "         2 -- L2 %n"
                 + "-r    <double> : weight decay >= 0 (default " + r + ")%n"
+                + "-B    <int>    : mini-batch size >= 1 (default " + B + ")%n"
+                + "-threads <int> : number of worker threads >= 1 (default " + threads + ")%n"
+                + "-L    <int>    : min number of cells for class-parallel prediction, 0 = off (default " + L + ")%n"
+                + "-p    <int>    : precision of training and prediction (default " + p + ")%n"
+                + "         32 -- single %n"
+                + "         64 -- double %n"
+                + "-E    <int>    : evaluation of convergence (default " + E + ")%n"
+                + "         0 -- loss and error of training set after each epoch %n"
+                + "         1 -- running estimates of training pass %n"
+                + "-K    <int>    : epochs between evaluations before convergence >= 1 (default " + K + ")%n"
+                + "-s    <double> : fraction of training set evaluated before convergence (default " + s + ")%n"
+                + "-A    <int>    : 1 = evaluates snapshots of weights during next epoch (default " + A + ")%n"
                 + "-T    <int>    : max number of epochs (default " + T + ")%n"
                 + "-S    <int>    : max number of stable epochs (default " + S + ")%n"
                 + "-o    <int>    : output mode (default " + o + ")%n"
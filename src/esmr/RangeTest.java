@@ -0,0 +1,62 @@
+package esmr;
+
+import util.Rand;
+
+/**
+ * Learning rate range test. Starting from a tiny learning rate, a step trains on a few examples and the learning rate
+ * is increased exponentially after every step, while the smoothed loss of the examples before their updates is
+ * recorded. The test stops once the loss diverges and returns a tenth of the learning rate of minimum smoothed loss,
+ * that is, a rate at which the loss still decreases steadily.
+ */
+final class RangeTest {
+
+    static final double MIN_RATE = 1E-5;    // learning rate of first step
+    static final double MAX_RATE = 10;      // learning rate of last step
+    static final int STEPS = 100;           // max number of steps
+    static final int SIZE = 16;             // min number of examples of a step
+    static final double BETA = 0.9;         // smoothing of loss
+    static final double DIVERGENCE = 4;     // ratio of smoothed to min loss at which the test stops
+
+    private RangeTest() {
+    }
+
+    /**
+     * Trains on examples f[0],...,f[k-1] with learning rate eta and returns their mean loss before their updates.
+     */
+    interface Step {
+        double apply(int[] f, double eta);
+    }
+
+    /**
+     * Returns the learning rate selected by steps of size examples drawn without replacement from n examples.
+     */
+    static double apply(int n, int size, Rand rand, Step step) {
+        double factor = Math.pow(MAX_RATE / MIN_RATE, 1.0 / (STEPS - 1));
+        double eta = MIN_RATE;
+        double avg = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double best = MIN_RATE;
+        int[] order = rand.shuffle(n);
+        int next = 0;
+        for (int s = 0; s < STEPS; s++, eta *= factor) {
+            int[] f = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (next == n) {
+                    order = rand.shuffle(n);
+                    next = 0;
+                }
+                f[i] = order[next++];
+            }
+            avg = BETA * avg + (1 - BETA) * step.apply(f, eta);
+            double loss = avg / (1 - Math.pow(BETA, s + 1));
+            if (!(loss < DIVERGENCE * min) && 0 < s) {
+                break;
+            }
+            if (loss < min) {
+                min = loss;
+                best = eta;
+            }
+        }
+        return best / 10;
+    }
+}
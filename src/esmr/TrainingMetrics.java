@@ -0,0 +1,88 @@
+package esmr;
+
+import util.Msg;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Listener that exposes the metrics of the last epoch as the MBean "esmr:type=Training,name=<name>" of the platform
+ * MBean server, e.g. for jconsole or JMX exporters of monitoring systems.
+ */
+public final class TrainingMetrics implements TrainingMetricsMBean, MetricsListener {
+
+    private volatile Metrics last = new Metrics(0, 0, 0, 0, 0, 0, 0, 0, -1, 0);
+
+    private TrainingMetrics() {
+    }
+
+    /**
+     * Returns a listener registered under the given name. A previously registered MBean of the same name is replaced.
+     */
+    public static TrainingMetrics register(String name) {
+        TrainingMetrics metrics = new TrainingMetrics();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName id = new ObjectName("esmr:type=Training,name=" + ObjectName.quote(name));
+            if (server.isRegistered(id)) {
+                server.unregisterMBean(id);
+            }
+            server.registerMBean(metrics, id);
+        } catch (JMException e) {
+            Msg.warn("Warning! Cannot register MBean %s: %s", name, e.getMessage());
+        }
+        return metrics;
+    }
+
+    @Override
+    public void epoch(Metrics m) {
+        last = m;
+    }
+
+    @Override
+    public int getEpoch() {
+        return last.epoch();
+    }
+
+    @Override
+    public double getTrainSeconds() {
+        return last.trainSeconds();
+    }
+
+    @Override
+    public double getLossSeconds() {
+        return last.lossSeconds();
+    }
+
+    @Override
+    public double getEvalSeconds() {
+        return last.evalSeconds();
+    }
+
+    @Override
+    public double getExamplesPerSecond() {
+        return last.examplesPerSecond();
+    }
+
+    @Override
+    public double getCellsPerSecond() {
+        return last.cellsPerSecond();
+    }
+
+    @Override
+    public double getPathLength() {
+        return last.pathLength();
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return last.allocatedBytes();
+    }
+
+    @Override
+    public int getRestarts() {
+        return last.restarts();
+    }
+}
@@ -0,0 +1,25 @@
+package esmr;
+
+/**
+ * Management interface of TrainingMetrics. All values refer to the last reported epoch.
+ */
+public interface TrainingMetricsMBean {
+
+    int getEpoch();
+
+    double getTrainSeconds();
+
+    double getLossSeconds();
+
+    double getEvalSeconds();
+
+    double getExamplesPerSecond();
+
+    double getCellsPerSecond();
+
+    double getPathLength();
+
+    long getAllocatedBytes();
+
+    int getRestarts();
+}
@@ -1,11 +1,21 @@
 package esmr;
 
+import data.DataStream;
 import data.Dataset;
-import data.Pattern;
+import data.PackedDataset;
 import esmr.regularizer.Regularizer;
-import util.Array;
+import util.Events;
 import util.Options;
+import util.Parallel;
 import util.Rand;
+import util.Tensor;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * Warped Softmax Regression
@@ -14,9 +24,27 @@ public class WSR extends Classifier {
 
     Rand rand;                                      // random number generator
     Parameter params;                               // parameters
-    double[][][] W;                                 // weights
-    double[][] Z;                                   // training examples
+    Tensor W;                                       // weights
+    float[] F;                                      // weights in single precision (null = double precision)
+    PackedDataset Z;                                // training examples
+    float[] Zf;                                     // values of Z in single precision (null = double precision)
     int[] Y;                                        // class labels
+    Regularizer reg;                                // regularizer
+    ThreadLocal<WarpedProduct> ws;                  // workspaces for scoring per thread
+    ThreadLocal<Pruning> ps;                        // buffers of bounds for predict() per thread
+
+    // upper bounds of warped products for pruning classes in predict()
+    double[][] U;                                   // max sum of contiguous weights per class and position
+    double[][] L;                                   // min sum of contiguous weights per class and position
+    double[][] H;                                   // max weight per class and position
+    double[][] G;                                   // min weight per class and position
+    double[][] A;                                   // sum of absolute weights per class and position
+    LongAdder numScored = new LongAdder();          // number of scored classes
+    LongAdder numPruned = new LongAdder();          // number of pruned classes
+
+    private volatile ForkJoinPool latencyPool;      // shared pool for class-parallel prediction (null = off)
+    private final LongAdder lossNanos = new LongAdder();    // time of evaluations since last report
+    private boolean estimate;                       // workers accumulate running estimates in current epoch
 
     private int n;                                  // number of training examples
     private int d0;                                 // number of labels
@@ -25,8 +53,18 @@ public class WSR extends Classifier {
 
 
     public WSR(String opts) {
-        rand = Rand.getInstance();
+        this(opts, Rand.getInstance());
+    }
+
+    /**
+     * Creates a classifier that draws its random numbers from rand, e.g. for training several classifiers
+     * concurrently.
+     */
+    public WSR(String opts, Rand rand) {
+        this.rand = rand;
         params = new Parameter(opts);
+        ws = ThreadLocal.withInitial(() -> new WarpedProduct(d1, d2, params.w));
+        ps = ThreadLocal.withInitial(Pruning::new);
     }
 
     @Override
@@ -39,165 +77,733 @@ public class WSR extends Classifier {
         return "Warped Softmax Regression";
     }
 
+    /**
+     * Returns the class with maximum warped product. Classes are scored in descending order of their upper bounds.
+     * A class is pruned if its bound is below the best product so far. Ties are broken in favor of the smallest
+     * class index. With "-p 32" products are computed in single precision. The bounds are loose under unconstrained
+     * warping, such that pruning mostly pays off with a narrow warping window.
+     */
     @Override
-    public int predict(Pattern p) {
+    public int predict(double[] x) {
+        return predict(x, 0, x.length);
+    }
+
+    /**
+     * Predicts the time series x[xo],...,x[xo+n-1] in place as predict(double[]).
+     */
+    @Override
+    public int predict(double[] x, int xo, int n) {
+        ForkJoinPool pool = latencyPool;
+        if (pool != null && params.L <= ((long) d0) * d1 * n && !ForkJoinTask.inForkJoinPool()) {
+            return predict(x, xo, n, pool);
+        }
+        WarpedProduct P = ws.get();
+        float[] xf = F == null ? null : P.single(x, xo, n);
+        if (U == null || (banded() && n != d2)) {
+            int i0 = 0;
+            double z0 = product(P, 0, x, xo, n, xf);
+            for (int i = 1; i < d0; i++) {
+                double z = product(P, i, x, xo, n, xf);
+                if (z0 < z) {
+                    i0 = i;
+                    z0 = z;
+                }
+            }
+            return i0;
+        }
+
+        // upper bounds in descending order
+        Pruning buffers = ps.get().allocate(d0, d1);
+        double[] b = buffers.b;
+        double[] gain = buffers.gain;
+        int[] order = buffers.order;
+        for (int i = 0; i < d0; i++) {
+            b[i] = bound(i, x, xo, n, gain);
+            int k = i;
+            while (0 < k && b[order[k - 1]] < b[i]) {
+                order[k] = order[k - 1];
+                k--;
+            }
+            order[k] = i;
+        }
+
+        int i0 = -1;
+        double z0 = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < d0; k++) {
+            int i = order[k];
+            if (0 <= i0 && b[i] < z0) {
+                numPruned.increment();
+                continue;
+            }
+            numScored.increment();
+            double z = product(P, i, x, xo, n, xf);
+            if (i0 < 0 || z0 < z || (z0 == z && i < i0)) {
+                i0 = i;
+                z0 = z;
+            }
+        }
+        return i0;
+    }
+
+    /*
+     * Scores all classes concurrently for low latency of a single prediction. The calling thread scores the first class
+     * while the pool scores the others.
+     */
+    private int predict(double[] x, int xo, int n, ForkJoinPool pool) {
+        double[] z = new double[d0];
+        float[] xf = F == null ? null : ws.get().single(x, xo, n);
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[d0];
+        for (int i = 1; i < d0; i++) {
+            int k = i;
+            tasks[i] = pool.submit(() -> {
+                z[k] = product(ws.get(), k, x, xo, n, xf);
+            });
+        }
+        z[0] = product(ws.get(), 0, x, xo, n, xf);
         int i0 = 0;
-        double z0 = WarpedProduct.score(W[0], p.x);
         for (int i = 1; i < d0; i++) {
-            double z = WarpedProduct.score(W[i], p.x);
-            if (z0 < z) {
+            tasks[i].join();
+            if (z[i0] < z[i]) {
                 i0 = i;
-                z0 = z;
             }
         }
         return i0;
     }
 
+    /*
+     * Buffers of a thread for pruning in predict(). They are allocated on first use and only grow, such that a
+     * prediction allocates no memory.
+     */
+    private static final class Pruning {
+
+        double[] b = new double[0];     // upper bounds per class
+        double[] gain = new double[0];  // largest gains of a bound
+        int[] order = new int[0];       // classes in descending order of bounds
+
+        Pruning allocate(int d0, int d1) {
+            if (b.length < d0) {
+                b = new double[d0];
+                order = new int[d0];
+            }
+            if (gain.length < d1) {
+                gain = new double[d1];
+            }
+            return this;
+        }
+    }
+
+    /*
+     * Pool of all classifiers for class-parallel prediction, created on first use. Its threads are daemons and
+     * terminate when idle, such that classifiers need not be closed. A prediction submits at most d0 - 1 tasks.
+     */
+    private static final class LatencyPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    // product of class i and x[xo],...,x[xo+n-1] in double precision or in single precision xf of length n if not null
+    private double product(WarpedProduct P, int i, double[] x, int xo, int n, float[] xf) {
+        if (xf == null) {
+            return P.product(W, i, x, xo, n);
+        }
+        return P.product(F, W.offset(i), d1, d2, xf, 0, n);
+    }
+
+    /**
+     * Returns the fraction of classes pruned by predict() since the last call of fit().
+     */
+    public double pruningRate() {
+        long pruned = numPruned.sum();
+        long total = numScored.sum() + pruned;
+        return total == 0 ? 0 : ((double) pruned) / total;
+    }
+
     @Override
     public void fit(Dataset X) {
+        check(X);
+        PackedDataset D = X.pack();
+        fit(D, null, D);
+    }
+
+    /**
+     * Trains on a dataset larger than the heap. An epoch is a pass over the chunks of S in random order, the time
+     * series of a chunk are processed in random order. Convergence is monitored on the in-memory sample H, which
+     * should be held out of S. The stream is rewound but not closed; the caller owns S and closes it. If S fits into a
+     * single chunk and H holds the same time series, the weights are the same as those of fit(Dataset).
+     */
+    public void fit(DataStream S, PackedDataset H) {
+        check(H);
+        fit(null, S, H);
+        Z = null;
+        Y = null;
+    }
+
+    // trains on dataset D or on the chunks of S and evaluates the weights on H
+    private void fit(PackedDataset D, DataStream S, PackedDataset H) {
 
         // initialize
-        check(X);
-        Z = X.patterns();
-        Y = X.labels();
-        d0 = X.numLabels();
+        boolean single = params.p == 32;
+        U = null;
+        F = null;
+        Z = D;
+        Y = D == null ? null : D.labels();
+        Zf = single && D != null ? D.toFloat(null) : null;
+        float[] Hf = !single ? null : H == D ? Zf : H.toFloat(null);
 
         // dimensions
-        n = X.size();                               // number of training examples
-        d0 = X.numLabels();                         // number of classes
-        d1 = Math.max(1, params.e);                 // elasticity
-        d2 = X.maxlength();                         // max length of time series
+        n = S == null ? D.size() : S.size();                            // number of training examples
+        d0 = S == null ? D.numLabels() : S.numLabels();                 // number of classes
+        d1 = Math.max(1, params.e);                                     // elasticity
+        d2 = Math.max(H.maxlength(), S == null ? 0 : S.maxlength());    // max length of time series
 
         // hyper-parameters
-        double lambda = params.r;                   // regularization parameter
         double eta = params.lr;                     // initial learning rate
-        double b1 = params.b1;                      // first momentum
-        double b2 = params.b2;                      // second momentum
         int T = params.T;                           // max number of epochs
 
         // auxiliary variables
-        double[][][] M = new double[d0][d1][d2];    // first moment
-        double[][][] V = new double[d0][d1][d2];    // second moment
-        WarpedProduct[] P = new WarpedProduct[d0];  // warped products per class
-        double[] out = new double[d0];              // output per class
+        Tensor M = new Tensor(d0, d1, d2, single);  // first moment
+        Tensor V = new Tensor(d0, d1, d2, single);  // second moment
+        int[] order = S == null ? new int[n] : null;    // order of examples in an epoch, reused
+        reg = params.getRegularizer();
+
+        // workers process mini-batches (B > 1) or shards of an epoch in lock-free stochastic gradient descent (B = 1)
+        int B = Math.min(params.B, n);              // mini-batch size
+        int numWorkers = Math.min(params.threads, 1 < B ? B : n);
+        ForkJoinPool pool = Parallel.pool(numWorkers);
+        Gradient sum = new Gradient(1 < B ? d0 * d1 * d2 : 0);
+        Worker[] workers = new Worker[numWorkers];
+        for (int k = 0; k < numWorkers; k++) {
+            workers[k] = 1 < B ? new Worker(new Gradient(d0 * d1 * d2)) : new Worker(M, V);
+        }
 
         // initialize weights
-        W = rand.nextArray(d0, d1, d2, Math.sqrt(d2));
-        double[][][] optW = Array.cp(W);
+        W = rand.nextTensor(d0, d1, d2, Math.sqrt(d2), single);
+        if (params.F == 1) {
+            eta = rangeTest(H, Hf, workers, pool, sum, M, V, B);
+        }
+        Tensor optW = W.copy();
 
         // logger
         Monitor monitor = new Monitor(params.T, params.S, params.o);
+        monitor.schedule(params.K, params.s < 1 ? rand.stratified(H.labels(), params.s) : null);
+
+        // evaluation of weights, asynchronous evaluations overlap with the next epoch
+        Evaluator evaluator = new Evaluator((w, sample) -> {
+            long start = System.nanoTime();
+            double[] result = params.E == 0 ? evaluate(w, H, Hf, sample) : estimate(workers);
+            lossNanos.add(System.nanoTime() - start);
+            return result;
+        }, params.A == 1 && params.E == 0);
+
+        // metrics
+        int restarts = 0;                           // number of restarts with decreased learning rate
+        lossNanos.reset();
+        collect(workers);
+        long allocated = listeners.isEmpty() ? -1 : Metrics.allocated();
 
         // learn
         for (int t = 1; t <= T && monitor.proceed(); t++) {
 
-            int[] f = rand.shuffle(n);
-            for (int next = 0; next < n; next++) {
+            estimate = params.E == 1 && monitor.evaluate(t);
+            Events.Epoch event = Events.on() ? new Events.Epoch() : null;
+            long start = System.nanoTime();
+            if (S == null) {
+                epoch(rand.shuffle(order), workers, pool, sum, M, V, B, eta);
+            } else {
+                S.rewind(rand);
+                for (PackedDataset C = S.next(); C != null; C = S.next()) {
+                    Z = C;
+                    Y = C.labels();
+                    Zf = single ? C.toFloat(Zf) : null;
+                    epoch(rand.shuffle(C.size()), workers, pool, sum, M, V, B, eta);
+                }
+            }
+            long trained = System.nanoTime();
+            if (event != null) {
+                event.commit(t, n, eta);
+            }
+            monitor.speed(n, trained - start);
+            int epoch = t;
+
+            if (monitor.evaluate(t) && evaluator.submit(W, t, monitor.sample())) {
+
+                // check convergence of evaluated epoch
+                monitor.log(evaluator.result, evaluator.epoch);
+                if (monitor.hasImproved[1]) {
+                    Events.Snapshot snapshot = Events.on() ? new Events.Snapshot() : null;
+                    optW.copy(evaluator.weights);
+                    if (snapshot != null) {
+                        snapshot.commit(evaluator.epoch, optW);
+                    }
+                }
+
+                // decrease learning rate if necessary
+                if (monitor.decreaseLearningRate(evaluator.epoch, params.W == 1)) {
+                    Events.learningRate(evaluator.epoch, eta, eta / 2.0);
+                    eta /= 2.0;
+                    if (params.W == 0) {
+                        evaluator.clear();
+                        t = 0;
+                        W = rand.nextTensor(d0, d1, d2, Math.sqrt(d2), single);
+                    }
+                    restarts++;
+                }
+            }
 
-                // get next example
-                double[] x = Z[f[next]];
+            // report metrics of epoch
+            if (!listeners.isEmpty()) {
+                long[] counts = collect(workers);
+                long bytes = Metrics.allocated();
+                Metrics metrics = new Metrics(epoch, trained - start, lossNanos.sumThenReset(),
+                        System.nanoTime() - trained, n, counts[0], (long) n * d0, counts[1],
+                        allocated < 0 || bytes < 0 ? -1 : Math.max(0, bytes - allocated), restarts);
+                allocated = bytes;
+                for (MetricsListener listener : listeners) {
+                    listener.epoch(metrics);
+                }
+            }
+        }
+        if (evaluator.take()) {
+            monitor.log(evaluator.result, evaluator.epoch);
+            if (monitor.hasImproved[1]) {
+                Events.Snapshot snapshot = Events.on() ? new Events.Snapshot() : null;
+                optW.copy(evaluator.weights);
+                if (snapshot != null) {
+                    snapshot.commit(evaluator.epoch, optW);
+                }
+            }
+        }
+        evaluator.shutdown();
+        Parallel.shutdown(pool);
+        W = optW;
+        prepare();
+        numScored.reset();
+        numPruned.reset();
+
+        // calling thread and pool score the classes of a single time series
+        int cores = Math.min(d0, Runtime.getRuntime().availableProcessors());
+        latencyPool = 0 < params.L && 1 < cores ? LatencyPool.POOL : null;
+    }
+
+    // processes the examples of Z in the order f in mini-batches of size B or in lock-free stochastic gradient descent
+    private void epoch(int[] f, Worker[] workers, ForkJoinPool pool, Gradient sum, Tensor M, Tensor V, int B,
+                       double eta) {
+        double b1 = params.b1;
+        double b2 = params.b2;
+        int numWorkers = workers.length;
+        int len = f.length;
+        for (int next = 0; 1 < B && next < len; next += B) {
+
+            // mean gradient of next mini-batch
+            int size = Math.min(B, len - next);
+            for (int k = 0; k < numWorkers; k++) {
+                workers[k].set(f, next + k * size / numWorkers, next + (k + 1) * size / numWorkers, eta);
+            }
+            Parallel.invokeAll(pool, Arrays.asList(workers));
+            for (Worker worker : workers) {
+                sum.reduce(worker.grad);
+            }
+
+            // update
+            for (int l = 0; l < sum.size; l++) {
+                int k = sum.index[l];
+                if (W.isSingle()) {
+                    Kernels.adam(W.fdata, M.fdata, V.fdata, k, sum.grad, k, size, 1, eta, b1, b2);
+                    continue;
+                }
+                double[] w = W.data;
+                double[] m1 = M.data;
+                double[] m2 = V.data;
+                double g = sum.grad[k] / size;
+                m1[k] = (b1 * m1[k] + (1 - b1) * g);
+                m2[k] = (b2 * m2[k] + (1 - b2) * g * g);
+                double mean = m1[k] / (1.0 - b1);
+                double var = m2[k] / (1.0 - b2);
+                w[k] -= eta * (mean / (Math.sqrt(var) + 10E-8));
+            }
+            sum.clear();
+        }
+        if (B == 1) {
+            for (int k = 0; k < numWorkers; k++) {
+                workers[k].set(f, k * len / numWorkers, (k + 1) * len / numWorkers, eta);
+            }
+            Parallel.invokeAll(pool, Arrays.asList(workers));
+        }
+    }
+
+    /*
+     * Returns the initial learning rate selected by a range test on the examples of H (values Hf in single precision)
+     * starting from the current weights. Weights and moments are restored afterwards.
+     */
+    private double rangeTest(PackedDataset H, float[] Hf, Worker[] workers, ForkJoinPool pool, Gradient sum, Tensor M,
+                             Tensor V, int B) {
+        PackedDataset D = Z;
+        float[] Df = Zf;
+        Tensor W0 = W.copy();
+        Z = H;
+        Y = H.labels();
+        Zf = Hf;
+        estimate = true;
+        int size = Math.min(H.size(), Math.max(B, RangeTest.SIZE));
+        double eta = RangeTest.apply(H.size(), size, rand, (f, lr) -> {
+            epoch(f, workers, pool, sum, M, V, B, lr);
+            double loss = 0;
+            for (Worker worker : workers) {
+                loss += worker.loss;
+                worker.loss = 0;
+                worker.errors = 0;
+            }
+            return loss / f.length;
+        });
+        estimate = false;
+        W = W0;
+        M.clear();
+        V.clear();
+        Z = D;
+        Y = D == null ? null : D.labels();
+        Zf = Df;
+        return eta;
+    }
+
+    // returns the number of cells and the sum of path lengths counted by the workers and resets the counters
+    private long[] collect(Worker[] workers) {
+        long[] counts = new long[2];
+        for (Worker worker : workers) {
+            counts[0] += worker.cells;
+            counts[1] += worker.pathLength;
+            worker.cells = 0;
+            worker.pathLength = 0;
+        }
+        return counts;
+    }
+
+    /*
+     * Processes the examples f[from],...,f[to-1]. In a mini-batch, a worker only reads the weights and accumulates the
+     * gradients, which are reduced in a fixed order. Otherwise, a worker updates weights and moments after each
+     * example. Several such workers run Hogwild: they share the weights and moments without locks. Conflicts are rare,
+     * because an example only updates cells on its warping paths. With "-E 1" a worker also accumulates the loss and
+     * errors of its examples before their updates.
+     */
+    private final class Worker implements Callable<Void> {
+
+        final WarpedProduct[] P = new WarpedProduct[d0];
+        final double[] out = new double[d0];
+        final double[] delta = new double[d0];
+        final double[] p = new double[d0];  // outputs including regularization for running estimates
+        final Gradient grad;                // gradient of mini-batch
+        final Tensor M;                     // first moment
+        final Tensor V;                     // second moment
+        int[] f;
+        int from;
+        int to;
+        double eta;
+        double loss;                        // running loss
+        int errors;                         // running number of errors
+        long cells;                         // number of cells of warped products
+        long pathLength;                    // sum of lengths of optimal warping paths
+
+        Worker(Gradient grad) {
+            this(grad, null, null);
+        }
+
+        Worker(Tensor M, Tensor V) {
+            this(null, M, V);
+        }
+
+        private Worker(Gradient grad, Tensor M, Tensor V) {
+            this.grad = grad;
+            this.M = M;
+            this.V = V;
+            for (int i = 0; i < d0; i++) {
+                P[i] = new WarpedProduct(d1, d2, params.w);
+            }
+        }
+
+        void set(int[] f, int from, int to, double eta) {
+            this.f = f;
+            this.from = from;
+            this.to = to;
+            this.eta = eta;
+        }
+
+        @Override
+        public Void call() {
+            double lambda = params.r;
+            double b1 = params.b1;
+            double b2 = params.b2;
+            double[] x = Z.values();
+            float[] xf = Zf;
+            Kernels.SingleAdam adam = new Kernels.SingleAdam(eta, b1, b2);
+            for (int next = from; next < to; next++) {
+                int xo = Z.start(f[next]);
+                int xn = Z.length(f[next]);
                 int y = Y[f[next]];
 
                 // compute output
+                float[] wf = W.fdata;
                 int i0 = 0;
                 for (int i = 0; i < d0; i++) {
-                    P[i] = new WarpedProduct(W[i], x);
-                    out[i] = P[i].score();
+                    out[i] = wf == null ? P[i].warp(W, i, x, xo, xn) : P[i].warp(wf, W.offset(i), d1, d2, xf, xo, xn);
+                    cells += P[i].cells();
                     if (out[i0] < out[i]) {
                         i0 = i;
                     }
                 }
-                out = softmax(out, out[i0]);
+                if (estimate) {
+                    System.arraycopy(out, 0, p, 0, d0);
+                    errors += i0 == y ? 0 : 1;
+                }
+                softmax(out, out[i0]);
 
                 // update
-                double[] delta = derivative(out, y);
+                derivative(out, y, delta);
+                double[] w = W.data;
                 for (int i = 0; i < d0; i++) {
-                    double[][] w = W[i];
-                    int[][] path = P[i].path();
-                    int len = path.length;
-                    Regularizer reg = params.getRegularizer(w);
-                    int r, s;
-                    for (int l = 0; l < len; l++) {
-                        r = path[l][0]; // index of w
-                        s = path[l][1]; // index of x
-                        double grad = delta[i] * x[s] + lambda * reg.derivative(r, s);
-                        M[i][r][s] = (b1 * M[i][r][s] + (1 - b1) * grad);
-                        V[i][r][s] = (b2 * V[i][r][s] + (1 - b2) * grad * grad);
-                        double mean = M[i][r][s] / (1.0 - b1);
-                        double var = V[i][r][s] / (1.0 - b2);
-                        w[r][s] -= eta * (mean / (Math.sqrt(var) + 10E-8));
+                    int[] path = P[i].path();
+                    int len = 2 * P[i].length();
+                    pathLength += P[i].length();
+                    int r, s, k;
+                    for (int l = 0; l < len; l += 2) {
+                        r = path[l];     // index of w
+                        s = path[l + 1]; // index of x
+                        k = W.index(i, r) + s;
+                        double wk = wf == null ? w[k] : wf[k];
+                        double xs = xf == null ? x[xo + s] : xf[xo + s];
+                        if (estimate && params.R != 0) {
+                            p[i] += lambda * reg.loss(wk);
+                        }
+                        double g = delta[i] * xs + lambda * reg.derivative(wk);
+                        if (grad != null) {
+                            grad.add(k, g);
+                            continue;
+                        }
+                        if (wf != null) {
+                            adam.step(wf, M.fdata, V.fdata, k, (float) g);
+                            continue;
+                        }
+                        double[] m1 = M.data;
+                        double[] m2 = V.data;
+                        m1[k] = (b1 * m1[k] + (1 - b1) * g);
+                        m2[k] = (b2 * m2[k] + (1 - b2) * g * g);
+                        double mean = m1[k] / (1.0 - b1);
+                        double var = m2[k] / (1.0 - b2);
+                        w[k] -= eta * (mean / (Math.sqrt(var) + 10E-8));
                     }
                 }
+                if (estimate) {
+                    loss += loss(p, y);
+                }
             }
+            return null;
+        }
+    }
 
-            // check convergence
-            monitor.log(new double[]{loss(out), 100 * eval(X)}, t);
-            if (monitor.hasImproved[1]) {
-                optW = Array.cp(W);
+    // returns the running loss and error rate in percent accumulated by the workers in the last epoch
+    private double[] estimate(Worker[] workers) {
+        double loss = 0;
+        int errors = 0;
+        for (Worker worker : workers) {
+            loss += worker.loss;
+            errors += worker.errors;
+            worker.loss = 0;
+            worker.errors = 0;
+        }
+        return new double[]{loss / n, 100.0 * errors / n};
+    }
+
+    /*
+     * Returns the loss and the error rate in percent of weights W on the examples of H in sample (null = all) in one
+     * parallel pass of products. Optimal paths are only computed if the loss includes the regularization along
+     * these paths. The losses of the examples are summed in a fixed order. Weights in single precision are evaluated
+     * on the values Hf of H in single precision.
+     */
+    private double[] evaluate(Tensor W, PackedDataset H, float[] Hf, int[] sample) {
+        float[] wf = W.fdata;
+        int R = params.R;
+        double lambda = params.r;
+        int[] y = H.labels();
+        int size = sample == null ? H.size() : sample.length;
+        double[] loss = new double[size];
+        boolean[] wrong = new boolean[size];
+        IntStream.range(0, size).parallel().forEach(e -> {
+            int next = sample == null ? e : sample[e];
+            WarpedProduct P = ws.get();
+            double[] x = H.values();
+            int xo = H.start(next);
+            int xn = H.length(next);
+            double[] p = new double[d0];
+            int i0 = 0;
+            double z0 = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < d0; i++) {
+                if (wf != null) {
+                    int off = W.offset(i);
+                    p[i] = R == 0 ? P.product(wf, off, d1, d2, Hf, xo, xn) : P.warp(wf, off, d1, d2, Hf, xo, xn);
+                } else if (R == 0) {
+                    p[i] = P.product(W, i, x, xo, xn);
+                } else {
+                    p[i] = P.warp(W, i, x, xo, xn);
+                }
+                if (i == 0 || z0 < p[i]) {
+                    i0 = i;
+                    z0 = p[i];
+                }
+                if (R != 0) {
+                    int[] path = P.path();
+                    int len = 2 * P.length();
+                    for (int l = 0; l < len; l += 2) {
+                        p[i] += lambda * reg.loss(W.get(W.index(i, path[l]) + path[l + 1]));
+                    }
+                }
             }
+            wrong[e] = i0 != y[next];
+            loss[e] = loss(p, y[next]);
+        });
+        double sum = 0;
+        int errors = 0;
+        for (int e = 0; e < size; e++) {
+            sum += loss[e];
+            errors += wrong[e] ? 1 : 0;
+        }
+        return new double[]{sum / size, 100.0 * errors / size};
+    }
 
-            // decrease learning rate if necessary
-            if (monitor.decreaseLearningRate(t)) {
-                t = 0;
-                eta /= 2.0;
-                W = rand.nextArray(d0, d1, d2, Math.sqrt(d2));
+    // prepares predict() for the current weights
+    private void prepare() {
+        bound();
+        F = W.fdata;
+    }
+
+    /*
+     * A warping path visits every position j of x in a contiguous run of rows of w and has at most d1 - 1 more cells
+     * than x has positions. Hence the product of class i and x is bounded by the sum over all j of the best single
+     * cell x[j] * w[r][j] plus the d1 - 1 largest gains of the best contiguous run over the best single cell. Only
+     * rows within the warping window of a series of length d2 are taken into account.
+     *
+     * The bound ignores that a path visits the rows in ascending order: every position takes its best rows on its
+     * own. Under unconstrained warping all rows are admissible at every position, hence the bound is loose. A narrow
+     * window admits only a few rows per position and the bound is close to the product. Enforcing the order of rows
+     * would amount to computing the product itself.
+     */
+    private void bound() {
+        if (U == null || U.length != d0 || U[0].length != d2) {
+            U = new double[d0][d2];
+            L = new double[d0][d2];
+            H = new double[d0][d2];
+            G = new double[d0][d2];
+            A = new double[d0][d2];
+        }
+        int[] first = new int[d1];
+        int[] last = new int[d1];
+        Arrays.fill(last, d2 - 1);
+        if (banded()) {
+            WarpedProduct.band(d1, d2, params.w, first, last);
+        }
+        for (int i = 0; i < d0; i++) {
+            int r0 = 0;
+            int r1 = 0;
+            for (int j = 0; j < d2; j++) {
+                while (last[r0] < j) {
+                    r0++;
+                }
+                while (r1 + 1 < d1 && first[r1 + 1] <= j) {
+                    r1++;
+                }
+                int k = W.index(i, r0) + j;
+                double v = W.get(k);
+                double hi = v;
+                double lo = v;
+                double maxHi = v;
+                double minLo = v;
+                double sumHi = v;
+                double sumLo = v;
+                double abs = Math.abs(v);
+                for (int r = r0 + 1; r <= r1; r++) {
+                    k += d2;
+                    v = W.get(k);
+                    sumHi = Math.max(sumHi + v, v);
+                    sumLo = Math.min(sumLo + v, v);
+                    hi = Math.max(hi, sumHi);
+                    lo = Math.min(lo, sumLo);
+                    maxHi = Math.max(maxHi, v);
+                    minLo = Math.min(minLo, v);
+                    abs += Math.abs(v);
+                }
+                U[i][j] = hi;
+                L[i][j] = lo;
+                H[i][j] = maxHi;
+                G[i][j] = minLo;
+                A[i][j] = abs;
             }
         }
-        W = optW;
     }
 
-    private double[] softmax(double[] p, double max_p) {
+    // upper bound of the warped product of class i and x[xo],...,x[xo+n-1] including a margin for rounding errors in
+    // the precision of F
+    private double bound(int i, double[] x, int xo, int n, double[] gain) {
+        double[] u = U[i];
+        double[] l = L[i];
+        double[] h = H[i];
+        double[] g = G[i];
+        double[] a = A[i];
+        int k = d1 - 1;
+        int len = Math.min(n, d2);
+        double b = 0;
+        double err = 0;
+        double min = 0;
+        Arrays.fill(gain, 0, k, 0);
+        for (int j = 0; j < len; j++) {
+            double xj = x[xo + j];
+            double cell, run;
+            if (0 <= xj) {
+                cell = xj * h[j];
+                run = xj * u[j];
+            } else {
+                cell = xj * g[j];
+                run = xj * l[j];
+            }
+            b += cell;
+            err += Math.abs(xj) * a[j];
+
+            // keep k largest gains in ascending order
+            double d = run - cell;
+            if (0 < k && min < d) {
+                int r = 0;
+                while (r + 1 < k && gain[r + 1] < d) {
+                    gain[r] = gain[r + 1];
+                    r++;
+                }
+                gain[r] = d;
+                min = gain[0];
+            }
+        }
+        for (int r = 0; r < k; r++) {
+            b += gain[r];
+        }
+        double eps = F == null ? Math.ulp(1.0) : Math.ulp(1.0f);
+        return b + 4.0 * (d1 + n) * eps * err;
+    }
+
+    private boolean banded() {
+        return params.w < 1.0 && 1 < d1;
+    }
+
+    // overwrites p with its softmax
+    private void softmax(double[] p, double max_p) {
         double sum = 0;
         int n = p.length;
-        double[] z = new double[n];
         for (int i = 0; i < n; i++) {
-            z[i] = Math.exp(p[i] - max_p);
-            sum += z[i];
+            p[i] = Math.exp(p[i] - max_p);
+            sum += p[i];
         }
         for (int i = 0; i < n; i++) {
-            z[i] /= sum;
+            p[i] /= sum;
         }
-        return z;
     }
 
-    private double[] derivative(double[] z, int y) {
+    private void derivative(double[] z, int y, double[] d) {
         int n = z.length;
-        double[] d = new double[n];
         for (int i = 0; i < n; i++) {
             d[i] = y == i ? -1 : 0;
             d[i] += z[i];
         }
-        return d;
-    }
-
-    private double loss(double[] p) {
-        int R = params.R;
-        double lambda = params.r;
-        double loss = 0;
-        for (int next = 0; next < n; next++) {
-            for (int i = 0; i < d0; i++) {
-                WarpedProduct P = new WarpedProduct(W[i], Z[next]);
-                p[i] = P.score();
-                if (0 < R) {
-                    int[][] path = P.path();
-                    int len = path.length;
-                    Regularizer reg = params.getRegularizer(W[i]);
-                    for (int l = 0; l < len; l++) {
-                        p[i] += lambda * reg.loss(path[l][0], path[l][1]);
-                    }
-                }
-            }
-            double sum = 0;
-            double max_p = Array.max(p);
-            for (int i = 0; i < d0; i++) {
-                sum += Math.exp(p[i] - max_p);
-            }
-            double z = Math.exp(p[Y[next]] - max_p) / sum;
-            if (z < EPS) {
-                z = EPS;
-            }
-            loss -= Math.log(z);
-        }
-        return loss / n;
     }
 }
@@ -1,122 +1,739 @@
 package esmr;
 
+import util.Tensor;
+
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+/**
+ * Warped product of a weight matrix w and a time series x.
+ *
+ * An instance is a reusable workspace: the score rows, the backpointers (2 bits per cell) and the path buffer are
+ * allocated once and only grow if a larger lattice is warped. The path is stored as a flat array of pairs
+ * (index of w, index of x), i.e. the l-th pair is (path[2l], path[2l+1]).
+ *
+ * A workspace can constrain warping to a Sakoe-Chiba band around the diagonal from (0, 0) to (m-1, n-1). The window is
+ * the radius of the band as fraction of the length of x. Row i of the lattice then covers only the positions
+ * lo[i],...,hi[i] of x, so that the cost of a product is proportional to the width of the band. The radius is at
+ * least one and at least half the slope of the diagonal, which keeps the band connected.
+ *
+ * Products without path of matrices with many rows are computed along anti-diagonals. All cells of an anti-diagonal
+ * are independent, such that the cost is not bound by the latency of the dependency along a column of the sweep.
+ *
+ * Products without path can also be computed from weights in a buffer, such as a memory-mapped model file. Products
+ * with and without path are also available in single precision. These kernels read half as many bytes of w and x per
+ * cell and are used for training and predictions if a classifier runs in single precision.
+ */
 public final class WarpedProduct {
 
-    private int[][] m_path;
-    private double m_prod;
+    private static final int U = 0;     // up
+    private static final int R = 1;     // right
+    private static final int D = 2;     // diagonal
+
+    private static final double NEG_INF = Double.NEGATIVE_INFINITY;
+
+    static final int WAVEFRONT = 16;    // min number of rows for anti-diagonal products
+
+    private double[] m_prev;            // previous row of score matrix
+    private double[] m_curr;            // current row of score matrix
+    private long[] m_dirs;              // packed backpointers
+    private double[] m_col;             // current column of score matrix
+    private double[][] m_diags;         // last three anti-diagonals of score matrix
+    private float[] m_fcol;             // current column of score matrix in single precision
+    private float[] m_fprev;            // previous row of score matrix in single precision
+    private float[] m_fcurr;            // current row of score matrix in single precision
+    private float[] m_x;                // time series in single precision
+    private int[] m_path;               // flat path
+    private int m_len;                  // number of pairs in path
+    private double m_prod;              // warped product
+    private long m_cells;               // number of cells computed by last warp()
+    private double m_window = 1.0;      // radius of warping window as fraction of length
+    private int[] m_lo;                 // first position of x covered by a row
+    private int[] m_hi;                 // last position of x covered by a row
+
+    public WarpedProduct(int m, int n) {
+        allocate(m, n);
+    }
 
-    public WarpedProduct(double[][] w, double[] x) {
-        warp(w, x);
+    public WarpedProduct(int m, int n, double window) {
+        this(m, n);
+        m_window = window;
     }
 
     public double score() {
         return m_prod;
     }
 
-    public int[][] path() {
+    public int[] path() {
         return m_path;
     }
 
+    public int length() {
+        return m_len;
+    }
 
-    public static double score(double[][] w, double[] x) {
+    /**
+     * Returns the number of cells of the score matrix computed by the last call of warp(), i.e. the cells within the
+     * warping window.
+     */
+    public long cells() {
+        return m_cells;
+    }
 
-        int m = w.length;
-        int n = x.length;
+    /**
+     * Returns the warped product of the m x len matrix w starting at index off and time series x.
+     */
+    public static double score(double[] w, int off, int m, int len, double[] x) {
+        return sweep(w, off, m, len, x, 0, x.length, new double[m]);
+    }
 
-        if (w[0].length < n) {
-            w = expand(w, n);
+    /**
+     * Computes the warped product of slice i of W and x without path.
+     */
+    public double product(Tensor W, int i, double[] x) {
+        return product(W.data, W.offset(i), W.d1, W.d2, x, 0, x.length);
+    }
+
+    /**
+     * Computes the warped product of slice i of W and the time series x[xo],...,x[xo+n-1] without path.
+     */
+    public double product(Tensor W, int i, double[] x, int xo, int n) {
+        return product(W.data, W.offset(i), W.d1, W.d2, x, xo, n);
+    }
+
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off and time series x without path.
+     */
+    public double product(double[] w, int off, int m, int len, double[] x) {
+        return product(w, off, m, len, x, 0, x.length);
+    }
+
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off and the time series x[xo],...,x[xo+n-1]
+     * without path. Time series of a packed dataset are thus warped in place.
+     */
+    public double product(double[] w, int off, int m, int len, double[] x, int xo, int n) {
+        if (m_col == null || m_col.length < m) {
+            m_col = new double[m];
+        }
+        if (band(m, n)) {
+            return sweepBand(w, off, m, len, x, xo, n, m_col);
         }
+        if (WAVEFRONT <= m) {
+            if (m_diags == null || m_diags[0].length < m) {
+                m_diags = new double[3][m];
+            }
+            return wavefront(w, off, m, len, x, xo, n, m_diags);
+        }
+        return sweep(w, off, m, len, x, xo, n, m_col);
+    }
 
-        int i, j;
-        double[][] scores = new double[m][n];
-        scores[0][0] = w[0][0] * x[0];
-        for (i = 1; i < m; i++) {
-            scores[i][0] = scores[i - 1][0] + (w[i][0] * x[0]);
+    /*
+     * Sweeps the score matrix column by column over x and keeps only the current column of length m. Values and order
+     * of comparisons are the same as in warp(), hence both return the same product.
+     */
+    private static double sweep(double[] w, int off, int m, int len, double[] x, int xo, int n, double[] col) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
         }
+
+        int i, j, k;
+        double xj = x[xo];
+        col[0] = w[off] * xj;
+        for (i = 1, k = off + len; i < m; i++, k += len) {
+            col[i] = col[i - 1] + (w[k] * xj);
+        }
+
+        double max, diag, left;
         for (j = 1; j < n; j++) {
-            scores[0][j] = scores[0][j - 1] + (w[0][j] * x[j]);
+            xj = x[xo + j];
+            k = off + j;
+            diag = col[0];
+            col[0] = diag + (w[k] * xj);
+            for (i = 1; i < m; i++) {
+                k += len;
+                left = col[i];
+                max = diag;
+                if (col[i - 1] > max) {
+                    max = col[i - 1];
+                }
+                if (left > max) {
+                    max = left;
+                }
+                col[i] = max + (w[k] * xj);
+                diag = left;
+            }
         }
+        return col[m - 1];
+    }
+
+    /*
+     * Sweeps the score matrix along the anti-diagonals i + j = d. Cell (i, j) depends on the cells (i-1, j-1) on
+     * anti-diagonal d-2 and (i-1, j), (i, j-1) on anti-diagonal d-1, hence the cells of an anti-diagonal are
+     * independent. Anti-diagonals are indexed by row. Values and order of comparisons are the same as in sweep().
+     */
+    private static double wavefront(double[] w, int off, int m, int len, double[] x, int xo, int n,
+                                    double[][] diags) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
+        }
+
+        double[] curr = diags[0];       // anti-diagonal d
+        double[] prev = diags[1];       // anti-diagonal d-1
+        double[] prev2 = diags[2];      // anti-diagonal d-2
+        double[] tmp;
+        curr[0] = w[off] * x[xo];
 
+        int i, i0, i1, j, k;
         double max;
-        for (i = 1; i < m; i++) {
-            for (j = 1; j < n; j++) {
-                max = scores[i - 1][j - 1];
-                if (scores[i - 1][j] > max) {
-                    max = scores[i - 1][j];
+        for (int d = 1; d < m + n - 1; d++) {
+            tmp = prev2;
+            prev2 = prev;
+            prev = curr;
+            curr = tmp;
+            i0 = Math.max(0, d - n + 1);
+            i1 = Math.min(m - 1, d);
+            if (i0 == 0) {
+                curr[0] = prev[0] + (w[off + d] * x[xo + d]);
+                i0 = 1;
+            }
+            if (i1 == d) {
+                curr[d] = prev[d - 1] + (w[off + d * len] * x[xo]);
+                i1--;
+            }
+            for (i = i0, j = d - i0, k = off + i0 * len + j; i <= i1; i++, j--, k += len - 1) {
+                max = prev2[i - 1];
+                if (prev[i - 1] > max) {
+                    max = prev[i - 1];
+                }
+                if (prev[i] > max) {
+                    max = prev[i];
+                }
+                curr[i] = max + (w[k] * x[xo + j]);
+            }
+        }
+        return curr[m - 1];
+    }
+
+    /*
+     * Column sweep restricted to the warping window. Rows i0,...,i1 cover the current column j. Cells outside of the
+     * window score minus infinity.
+     */
+    private double sweepBand(double[] w, int off, int m, int len, double[] x, int xo, int n, double[] col) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
+        }
+
+        int[] lo = m_lo;
+        int[] hi = m_hi;
+        int i, j, k;
+        int i0 = 0;
+        int i1 = 0;
+        double xj = x[xo];
+        Arrays.fill(col, 0, m, NEG_INF);
+        col[0] = w[off] * xj;
+        for (i = 1, k = off + len; i < m && lo[i] == 0; i++, k += len) {
+            col[i] = col[i - 1] + (w[k] * xj);
+            i1 = i;
+        }
+
+        double max, diag, left;
+        for (j = 1; j < n; j++) {
+            xj = x[xo + j];
+            while (hi[i0] < j) {
+                i0++;
+            }
+            while (i1 + 1 < m && lo[i1 + 1] <= j) {
+                i1++;
+            }
+            i = i0;
+            k = off + i0 * len + j;
+            if (i0 == 0) {
+                diag = col[0];
+                col[0] = diag + (w[k] * xj);
+                i = 1;
+                k += len;
+            } else {
+                diag = col[i0 - 1];
+                col[i0 - 1] = NEG_INF;
+            }
+            for (; i <= i1; i++, k += len) {
+                left = col[i];
+                max = diag;
+                if (col[i - 1] > max) {
+                    max = col[i - 1];
                 }
-                if (scores[i][j - 1] > max) {
-                    max = scores[i][j - 1];
+                if (left > max) {
+                    max = left;
                 }
-                scores[i][j] = max + (w[i][j] * x[j]);
+                col[i] = max + (w[k] * xj);
+                diag = left;
             }
         }
-        return scores[m - 1][n - 1];
+        return col[m - 1];
     }
 
-    private void warp(double[][] w, double[] x) {
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off of a buffer and time series x without
+     * path.
+     */
+    public double product(DoubleBuffer w, int off, int m, int len, double[] x) {
+        if (len < x.length) {
+            double[] v = new double[m * len];
+            DoubleBuffer b = w.duplicate();
+            b.position(off);
+            b.get(v);
+            return product(v, 0, m, len, x);
+        }
+        if (m_col == null || m_col.length < m) {
+            m_col = new double[m];
+        }
+        if (band(m, x.length)) {
+            return sweepBand(w, off, m, len, x, m_col);
+        }
+        return sweep(w, off, m, len, x, m_col);
+    }
 
-        final int U = 0;     // up
-        final int R = 1;     // right
-        final int D = 2;     // diagonal
+    // column sweep over a buffer
+    private static double sweep(DoubleBuffer w, int off, int m, int len, double[] x, double[] col) {
 
-        int m = w.length;
         int n = x.length;
 
-        if (w[0].length < n) {
-            w = expand(w, n);
+        int i, j, k;
+        double xj = x[0];
+        col[0] = w.get(off) * xj;
+        for (i = 1, k = off + len; i < m; i++, k += len) {
+            col[i] = col[i - 1] + (w.get(k) * xj);
         }
 
-        int i, j;
-        int[][] direction = new int[m][n];
-        double[][] scores = new double[m][n];
+        double max, diag, left;
+        for (j = 1; j < n; j++) {
+            xj = x[j];
+            k = off + j;
+            diag = col[0];
+            col[0] = diag + (w.get(k) * xj);
+            for (i = 1; i < m; i++) {
+                k += len;
+                left = col[i];
+                max = diag;
+                if (col[i - 1] > max) {
+                    max = col[i - 1];
+                }
+                if (left > max) {
+                    max = left;
+                }
+                col[i] = max + (w.get(k) * xj);
+                diag = left;
+            }
+        }
+        return col[m - 1];
+    }
 
-        scores[0][0] = w[0][0] * x[0];
-        for (i = 1; i < m; i++) {
-            scores[i][0] = scores[i - 1][0] + (w[i][0] * x[0]);
-            direction[i][0] = U;
+    // column sweep restricted to the warping window over a buffer
+    private double sweepBand(DoubleBuffer w, int off, int m, int len, double[] x, double[] col) {
+
+        int n = x.length;
+
+        int[] lo = m_lo;
+        int[] hi = m_hi;
+        int i, j, k;
+        int i0 = 0;
+        int i1 = 0;
+        double xj = x[0];
+        Arrays.fill(col, 0, m, NEG_INF);
+        col[0] = w.get(off) * xj;
+        for (i = 1, k = off + len; i < m && lo[i] == 0; i++, k += len) {
+            col[i] = col[i - 1] + (w.get(k) * xj);
+            i1 = i;
         }
+
+        double max, diag, left;
         for (j = 1; j < n; j++) {
-            scores[0][j] = scores[0][j - 1] + (w[0][j] * x[j]);
-            direction[0][j] = R;
+            xj = x[j];
+            while (hi[i0] < j) {
+                i0++;
+            }
+            while (i1 + 1 < m && lo[i1 + 1] <= j) {
+                i1++;
+            }
+            i = i0;
+            k = off + i0 * len + j;
+            if (i0 == 0) {
+                diag = col[0];
+                col[0] = diag + (w.get(k) * xj);
+                i = 1;
+                k += len;
+            } else {
+                diag = col[i0 - 1];
+                col[i0 - 1] = NEG_INF;
+            }
+            for (; i <= i1; i++, k += len) {
+                left = col[i];
+                max = diag;
+                if (col[i - 1] > max) {
+                    max = col[i - 1];
+                }
+                if (left > max) {
+                    max = left;
+                }
+                col[i] = max + (w.get(k) * xj);
+                diag = left;
+            }
+        }
+        return col[m - 1];
+    }
+
+    /**
+     * Computes the warped product in single precision of the m x len matrix w starting at index off and time series x
+     * without path.
+     */
+    public float product(float[] w, int off, int m, int len, float[] x) {
+        return product(w, off, m, len, x, 0, x.length);
+    }
+
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off and the time series x[xo],...,x[xo+n-1]
+     * in single precision without path.
+     */
+    public float product(float[] w, int off, int m, int len, float[] x, int xo, int n) {
+        if (m_fcol == null || m_fcol.length < m) {
+            m_fcol = new float[m];
+        }
+        if (band(m, n)) {
+            return sweepBand(w, off, m, len, x, xo, n, m_fcol);
+        }
+        return sweep(w, off, m, len, x, xo, n, m_fcol);
+    }
+
+    /**
+     * Returns x rounded to single precision in the first x.length values of a buffer of this workspace. The buffer is
+     * overwritten by the next call and may be longer than x.
+     */
+    public float[] single(double[] x) {
+        return single(x, 0, x.length);
+    }
+
+    /**
+     * Returns x[xo],...,x[xo+n-1] rounded to single precision in the first n values of a buffer of this workspace. The
+     * buffer only grows, such that it may be longer than n.
+     */
+    public float[] single(double[] x, int xo, int n) {
+        if (m_x == null || m_x.length < n) {
+            m_x = new float[n];
+        }
+        for (int j = 0; j < n; j++) {
+            m_x[j] = (float) x[xo + j];
+        }
+        return m_x;
+    }
+
+    // column sweep in single precision
+    private static float sweep(float[] w, int off, int m, int len, float[] x, int xo, int n, float[] col) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
+        }
+
+        int i, j, k;
+        float xj = x[xo];
+        col[0] = w[off] * xj;
+        for (i = 1, k = off + len; i < m; i++, k += len) {
+            col[i] = col[i - 1] + (w[k] * xj);
+        }
+
+        float max, diag, left;
+        for (j = 1; j < n; j++) {
+            xj = x[xo + j];
+            k = off + j;
+            diag = col[0];
+            col[0] = diag + (w[k] * xj);
+            for (i = 1; i < m; i++) {
+                k += len;
+                left = col[i];
+                max = diag;
+                if (col[i - 1] > max) {
+                    max = col[i - 1];
+                }
+                if (left > max) {
+                    max = left;
+                }
+                col[i] = max + (w[k] * xj);
+                diag = left;
+            }
+        }
+        return col[m - 1];
+    }
+
+    // column sweep restricted to the warping window in single precision
+    private float sweepBand(float[] w, int off, int m, int len, float[] x, int xo, int n, float[] col) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
+        }
+
+        int[] lo = m_lo;
+        int[] hi = m_hi;
+        int i, j, k;
+        int i0 = 0;
+        int i1 = 0;
+        float xj = x[xo];
+        Arrays.fill(col, 0, m, Float.NEGATIVE_INFINITY);
+        col[0] = w[off] * xj;
+        for (i = 1, k = off + len; i < m && lo[i] == 0; i++, k += len) {
+            col[i] = col[i - 1] + (w[k] * xj);
+            i1 = i;
+        }
+
+        float max, diag, left;
+        for (j = 1; j < n; j++) {
+            xj = x[xo + j];
+            while (hi[i0] < j) {
+                i0++;
+            }
+            while (i1 + 1 < m && lo[i1 + 1] <= j) {
+                i1++;
+            }
+            i = i0;
+            k = off + i0 * len + j;
+            if (i0 == 0) {
+                diag = col[0];
+                col[0] = diag + (w[k] * xj);
+                i = 1;
+                k += len;
+            } else {
+                diag = col[i0 - 1];
+                col[i0 - 1] = Float.NEGATIVE_INFINITY;
+            }
+            for (; i <= i1; i++, k += len) {
+                left = col[i];
+                max = diag;
+                if (col[i - 1] > max) {
+                    max = col[i - 1];
+                }
+                if (left > max) {
+                    max = left;
+                }
+                col[i] = max + (w[k] * xj);
+                diag = left;
+            }
+        }
+        return col[m - 1];
+    }
+
+    /**
+     * Computes the warped product of slice i of W and x together with its optimal path and returns the product.
+     */
+    public double warp(Tensor W, int i, double[] x) {
+        return warp(W.data, W.offset(i), W.d1, W.d2, x, 0, x.length);
+    }
+
+    /**
+     * Computes the warped product of slice i of W and the time series x[xo],...,x[xo+n-1] together with its optimal
+     * path and returns the product.
+     */
+    public double warp(Tensor W, int i, double[] x, int xo, int n) {
+        return warp(W.data, W.offset(i), W.d1, W.d2, x, xo, n);
+    }
+
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off and time series x together with its
+     * optimal path and returns the product.
+     */
+    public double warp(double[] w, int off, int m, int len, double[] x) {
+        return warp(w, off, m, len, x, 0, x.length);
+    }
+
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off and the time series x[xo],...,x[xo+n-1]
+     * together with its optimal path and returns the product.
+     */
+    public double warp(double[] w, int off, int m, int len, double[] x, int xo, int n) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
+        }
+        allocate(m, n);
+        boolean band = band(m, n);
+        m_cells = band ? cells(m) : (long) m * n;
+
+        int i, j, k, o;
+        long[] dirs = m_dirs;
+        double[] prev = m_prev;
+        double[] curr = m_curr;
+        double[] tmp;
+        Arrays.fill(dirs, 0, (m * n + 31) >>> 5, 0L);
+
+        // positions of x covered by the rows
+        int[] lo = m_lo;
+        int[] hi = m_hi;
+        int jmin = 0;
+        int jmax = n - 1;
+
+        o = off;
+        curr[0] = w[o] * x[xo];
+        if (band) {
+            jmax = hi[0];
+        }
+        for (j = 1; j <= jmax; j++) {
+            curr[j] = curr[j - 1] + (w[o + j] * x[xo + j]);
         }
 
         double max;
         int dir;
         for (i = 1; i < m; i++) {
-            for (j = 1; j < n; j++) {
-                max = scores[i - 1][j - 1];
+            if (band) {
+                Arrays.fill(curr, jmax + 1, hi[i] + 1, NEG_INF);
+                jmin = lo[i];
+                jmax = hi[i];
+            }
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+            o += len;
+            if (jmin == 0) {
+                curr[0] = prev[0] + (w[o] * x[xo]);
+                j = 1;
+            } else {
+                curr[jmin - 1] = NEG_INF;
+                j = jmin;
+            }
+            k = i * n + j;
+            for (; j <= jmax; j++, k++) {
+                max = prev[j - 1];
                 dir = D;
-                if (scores[i - 1][j] > max) {
-                    max = scores[i - 1][j];
+                if (prev[j] > max) {
+                    max = prev[j];
                     dir = U;
                 }
-                if (scores[i][j - 1] > max) {
-                    max = scores[i][j - 1];
+                if (curr[j - 1] > max) {
+                    max = curr[j - 1];
                     dir = R;
                 }
-                scores[i][j] = max + (w[i][j] * x[j]);
-                direction[i][j] = dir;
+                curr[j] = max + (w[o + j] * x[xo + j]);
+                dirs[k >>> 5] |= ((long) dir) << ((k & 31) << 1);
             }
         }
-        m_prod = scores[m - 1][n - 1];
+        m_prod = curr[n - 1];
 
-        // compute path
+        trace(m, n);
+        return m_prod;
+    }
+
+    /**
+     * Computes the warped product of the m x len matrix w starting at index off and the time series x[xo],...,x[xo+n-1]
+     * together with its optimal path in single precision and returns the product.
+     */
+    public float warp(float[] w, int off, int m, int len, float[] x, int xo, int n) {
+
+        if (len < n) {
+            w = expand(w, off, m, len, n);
+            off = 0;
+            len = n;
+        }
+        allocate(m, n);
+        if (m_fprev == null || m_fprev.length < n) {
+            m_fprev = new float[n];
+            m_fcurr = new float[n];
+        }
+        boolean band = band(m, n);
+        m_cells = band ? cells(m) : (long) m * n;
+
+        int i, j, k, o;
+        long[] dirs = m_dirs;
+        float[] prev = m_fprev;
+        float[] curr = m_fcurr;
+        float[] tmp;
+        Arrays.fill(dirs, 0, (m * n + 31) >>> 5, 0L);
+
+        // positions of x covered by the rows
+        int[] lo = m_lo;
+        int[] hi = m_hi;
+        int jmin = 0;
+        int jmax = n - 1;
+
+        o = off;
+        curr[0] = w[o] * x[xo];
+        if (band) {
+            jmax = hi[0];
+        }
+        for (j = 1; j <= jmax; j++) {
+            curr[j] = curr[j - 1] + (w[o + j] * x[xo + j]);
+        }
+
+        float max;
+        int dir;
+        for (i = 1; i < m; i++) {
+            if (band) {
+                Arrays.fill(curr, jmax + 1, hi[i] + 1, Float.NEGATIVE_INFINITY);
+                jmin = lo[i];
+                jmax = hi[i];
+            }
+            tmp = prev;
+            prev = curr;
+            curr = tmp;
+            o += len;
+            if (jmin == 0) {
+                curr[0] = prev[0] + (w[o] * x[xo]);
+                j = 1;
+            } else {
+                curr[jmin - 1] = Float.NEGATIVE_INFINITY;
+                j = jmin;
+            }
+            k = i * n + j;
+            for (; j <= jmax; j++, k++) {
+                max = prev[j - 1];
+                dir = D;
+                if (prev[j] > max) {
+                    max = prev[j];
+                    dir = U;
+                }
+                if (curr[j - 1] > max) {
+                    max = curr[j - 1];
+                    dir = R;
+                }
+                curr[j] = max + (w[o + j] * x[xo + j]);
+                dirs[k >>> 5] |= ((long) dir) << ((k & 31) << 1);
+            }
+        }
+        m_prod = curr[n - 1];
+        trace(m, n);
+        return curr[n - 1];
+    }
+
+    // computes the optimal path of an m x n lattice from the backpointers in m_dirs
+    private void trace(int m, int n) {
+        long[] dirs = m_dirs;
+        int k, dir;
+        int[] path = m_path;
         int wi = m - 1;
         int xj = n - 1;
+        path[0] = wi;
+        path[1] = xj;
 
-        int[][] path = new int[m + n][2];
-        path[0][0] = wi;
-        path[0][1] = xj;
-
-        int l = 1;
-        dir = -1;
+        int l = 2;
         while (wi != 0 || xj != 0) {
             if (wi == 0) {
                 xj--;
             } else if (xj == 0) {
                 wi--;
             } else {
-                dir = direction[wi][xj];
+                k = wi * n + xj;
+                dir = (int) (dirs[k >>> 5] >>> ((k & 31) << 1)) & 3;
                 if (dir == U) {
                     wi--;
                 } else if (dir == R) {
@@ -126,25 +743,91 @@ public final class WarpedProduct {
                     xj--;
                 }
             }
-            path[l][0] = wi;
-            path[l][1] = xj;
-            l++;
+            path[l++] = wi;
+            path[l++] = xj;
         }
+        m_len = l >> 1;
 
-        // reverse order and trim
-        m_path = new int[l][2];
-        int k = l - 1;
-        for (i = 0; i < l; i++) {
-            m_path[i] = path[k - i];
+        // reverse order
+        for (int a = 0, b = l - 2; a < b; a += 2, b -= 2) {
+            int r = path[a];
+            int s = path[a + 1];
+            path[a] = path[b];
+            path[a + 1] = path[b + 1];
+            path[b] = r;
+            path[b + 1] = s;
         }
     }
 
-    private static double[][] expand(double[][] w, int nx) {
-        int m = w.length;
-        int n = w[0].length;
-        double[][] v = new double[m][nx];
+    /*
+     * Computes the rows of the warping window for an m x n lattice and returns false if warping is unconstrained.
+     */
+    private boolean band(int m, int n) {
+        if (1.0 <= m_window || m == 1) {
+            return false;
+        }
+        if (m_lo == null || m_lo.length < m) {
+            m_lo = new int[m];
+            m_hi = new int[m];
+        }
+        band(m, n, m_window, m_lo, m_hi);
+        return true;
+    }
+
+    // number of cells within the window of the last call of band()
+    private long cells(int m) {
+        long cells = 0;
+        for (int i = 0; i < m; i++) {
+            cells += m_hi[i] - m_lo[i] + 1;
+        }
+        return cells;
+    }
+
+    /*
+     * Writes the first and last position of x covered by each row of the window of an m x n lattice into lo and hi.
+     */
+    static void band(int m, int n, double window, int[] lo, int[] hi) {
+        double slope = (n - 1) / (double) (m - 1);
+        double r = Math.max(window * n, Math.max(0.5 * slope, 1.0));
+        for (int i = 0; i < m; i++) {
+            double c = i * slope;
+            lo[i] = Math.max(0, (int) Math.ceil(c - r));
+            hi[i] = Math.min(n - 1, (int) Math.floor(c + r));
+            if (0 < i && hi[i - 1] + 1 < lo[i]) {
+                lo[i] = hi[i - 1] + 1;
+            }
+        }
+        lo[0] = 0;
+        hi[m - 1] = n - 1;
+    }
+
+    private void allocate(int m, int n) {
+        if (m_prev == null || m_prev.length < n) {
+            m_prev = new double[n];
+            m_curr = new double[n];
+        }
+        int cells = (m * n + 31) >>> 5;
+        if (m_dirs == null || m_dirs.length < cells) {
+            m_dirs = new long[cells];
+        }
+        if (m_path == null || m_path.length < 2 * (m + n)) {
+            m_path = new int[2 * (m + n)];
+        }
+    }
+
+    // copies an m x len matrix into an m x n matrix padded with zeros
+    private static double[] expand(double[] w, int off, int m, int len, int n) {
+        double[] v = new double[m * n];
+        for (int i = 0; i < m; i++) {
+            System.arraycopy(w, off + i * len, v, i * n, len);
+        }
+        return v;
+    }
+
+    private static float[] expand(float[] w, int off, int m, int len, int n) {
+        float[] v = new float[m * n];
         for (int i = 0; i < m; i++) {
-            System.arraycopy(w[i], 0, v[i], 0, n);
+            System.arraycopy(w, off + i * len, v, i * n, len);
         }
         return v;
     }
@@ -5,19 +5,13 @@ package esmr.regularizer;
  */
 public class L1 implements Regularizer {
 
-    double[][] m_w;
-
-    public L1(double[][] w) {
-        m_w = w;
-    }
-
     @Override
-    public double derivative(int r, int s) {
-        return Math.signum(m_w[r][s]);
+    public double derivative(double w) {
+        return Math.signum(w);
     }
 
     @Override
-    public double loss(int r, int s) {
-        return Math.abs(m_w[r][s]);
+    public double loss(double w) {
+        return Math.abs(w);
     }
 }
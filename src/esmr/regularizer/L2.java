@@ -5,19 +5,13 @@ package esmr.regularizer;
  */
 public class L2 implements Regularizer {
 
-    double[][] m_w;
-
-    public L2(double[][] w) {
-        m_w = w;
-    }
-
     @Override
-    public double derivative(int r, int s) {
-        return m_w[r][s];
+    public double derivative(double w) {
+        return w;
     }
 
     @Override
-    public double loss(int r, int s) {
-        return m_w[r][s] * m_w[r][s];
+    public double loss(double w) {
+        return w * w;
     }
 }
@@ -2,7 +2,7 @@ package esmr.regularizer;
 
 public interface Regularizer {
 
-    double derivative(int r, int s);
+    double derivative(double w);
 
-    double loss(int r, int s);
+    double loss(double w);
 }
@@ -5,12 +5,12 @@ package esmr.regularizer;
 public class Zero implements Regularizer {
 
     @Override
-    public double derivative(int r, int s) {
+    public double derivative(double w) {
         return 0;
     }
 
     @Override
-    public double loss(int r, int s) {
+    public double loss(double w) {
         return 0;
     }
 }
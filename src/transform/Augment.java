@@ -1,7 +1,5 @@
 package transform;
 
-import data.Pattern;
-
 public class Augment extends Transform {
 
     double bias;
@@ -11,12 +9,13 @@ public class Augment extends Transform {
     }
 
     @Override
-    Pattern transform(Pattern p) {
-        int n = p.length();
-        double[] x = new double[n + 1];
-        System.arraycopy(p.x, 0, x, 1, n);
-        x[0] = bias;
-        return new Pattern(x, p.y);
+    int length(int n) {
+        return n + 1;
     }
-}
 
+    @Override
+    void transform(double[] x, int xo, int n, double[] z, int zo) {
+        z[zo] = bias;
+        System.arraycopy(x, xo, z, zo + 1, n);
+    }
+}
@@ -1,11 +1,18 @@
 package transform;
 
 import data.Dataset;
+import data.PackedDataset;
 import data.Pattern;
 
 public abstract class Transform {
 
+    /**
+     * Transforms all time series of X. Packed datasets are transformed into a packed dataset.
+     */
     public Dataset transform(Dataset X) {
+        if (X instanceof PackedDataset) {
+            return transform((PackedDataset) X);
+        }
         Dataset T = new Dataset();
         for (Pattern p : X) {
             T.add(transform(p));
@@ -13,5 +20,35 @@ public abstract class Transform {
         return T;
     }
 
-    abstract Pattern transform(Pattern p);
+    public PackedDataset transform(PackedDataset X) {
+        int n = X.size();
+        int[] start = new int[n];
+        int[] length = new int[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            start[i] = total;
+            length[i] = length(X.length(i));
+            total += length[i];
+        }
+        double[] z = new double[total];
+        double[] x = X.values();
+        for (int i = 0; i < n; i++) {
+            transform(x, X.start(i), X.length(i), z, start[i]);
+        }
+        return new PackedDataset(z, start, length, X.labels().clone());
+    }
+
+    Pattern transform(Pattern p) {
+        double[] z = new double[length(p.length())];
+        transform(p.x, 0, p.length(), z, 0);
+        return new Pattern(z, p.y);
+    }
+
+    // length of a transformed time series of length n
+    int length(int n) {
+        return n;
+    }
+
+    // writes the transform of x[xo],...,x[xo+n-1] into z[zo],...
+    abstract void transform(double[] x, int xo, int n, double[] z, int zo);
 }
@@ -1,45 +1,37 @@
 package transform;
 
-import data.Pattern;
-
 public class ZNormalize extends Transform {
 
     static final double EPS = 10E-10;
 
     @Override
-    Pattern transform(Pattern p) {
-        int n = p.length();
-        double[] x = p.x;
-        double avg = mean(x);
-        double std = std(x, avg);
+    void transform(double[] x, int xo, int n, double[] z, int zo) {
+        double avg = mean(x, xo, n);
+        double std = std(x, xo, n, avg);
 
         if (std < EPS) {
             std = EPS;
         }
-        double[] z = new double[n];
         for (int i = 0; i < n; i++) {
-            z[i] = (x[i] - avg) / std;
+            z[zo + i] = (x[xo + i] - avg) / std;
         }
-        return new Pattern(z, p.y);
     }
 
-    private double mean(double[] x) {
-        int n = x.length;
-        double avg = x[0];
+    private double mean(double[] x, int xo, int n) {
+        double avg = x[xo];
         for (int i = 1; i < n; i++) {
-            avg += x[i];
+            avg += x[xo + i];
         }
         return avg / ((double) n);
     }
 
-    private double std(double[] x, double mean) {
-        if (x == null || x.length == 0) {
+    private double std(double[] x, int xo, int n, double mean) {
+        if (x == null || n == 0) {
             return 0;
         }
         double v = 0;
-        int n = x.length;
-        for (double aX : x) {
-            v += Math.pow(aX - mean, 2);
+        for (int i = 0; i < n; i++) {
+            v += Math.pow(x[xo + i] - mean, 2);
         }
         return Math.sqrt(v / ((double) n));
     }
@@ -0,0 +1,264 @@
+package tune;
+
+import data.PackedDataset;
+import esmr.Classifier;
+import util.Msg;
+import util.Options;
+import util.Parallel;
+import util.Rand;
+import util.Reader;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiFunction;
+
+/**
+ * Stratified k-fold cross-validation of configurations of a classifier. A trial trains a classifier of one
+ * configuration on k-1 folds and returns its error on the remaining fold. All trials of all configurations run on one
+ * work-stealing pool.
+ *
+ * Trials share the training sets: folds are views of a packed dataset, such that no trial copies time series. Every
+ * trial draws its random numbers from a generator of its own with the same seed, such that results do not depend on
+ * the order in which trials are run.
+ *
+ * Every trial holds weights, moments and gradients of size c x e x n, where c is the number of classes, e the
+ * elasticity and n the length of the time series. The number of concurrent trials is limited such that the estimated
+ * memory of the running trials does not exceed a fraction of the free heap.
+ */
+public class CrossValidation {
+
+    final int k;                        // number of folds
+    final int threads;                  // max number of concurrent trials
+    final int seed;                     // seed of random number generators
+    double memory = 0.5;                // fraction of free heap available to concurrent trials
+    int verbosity = 1;                  // 0 = quiet, 1 = reports configurations
+
+    double[] mean;                      // mean error of configurations
+    double[] std;                       // standard deviation of errors of configurations
+
+    private final BiFunction<String, Rand, Classifier> factory;
+
+    /**
+     * @param factory creates a classifier from an option string and a random number generator
+     * @param k       number of folds; k > 1
+     * @param threads max number of concurrent trials; threads > 0
+     * @param seed    seed of the random number generators of folds and trials
+     */
+    public CrossValidation(BiFunction<String, Rand, Classifier> factory, int k, int threads, int seed) {
+        if (k < 2) {
+            Msg.error("Error! Number of folds must be at least 2: %d.", k);
+        }
+        if (threads < 1) {
+            Msg.error("Error! Number of threads must be positive: %d.", threads);
+        }
+        this.factory = factory;
+        this.k = k;
+        this.threads = threads;
+        this.seed = seed;
+    }
+
+    public void setVerbosity(int verbosity) {
+        this.verbosity = verbosity;
+    }
+
+    /**
+     * Sets the fraction of the free heap available to concurrent trials; 0 < memory <= 1.
+     */
+    public void setMemory(double memory) {
+        if (memory <= 0 || 1 < memory) {
+            Msg.error("Error! Fraction of memory must be in (0, 1]: %f.", memory);
+        }
+        this.memory = memory;
+    }
+
+    /**
+     * Cross-validates configuration opts[i] on dataset X[i] and returns the index of the configuration with minimum
+     * mean error. Ties are broken in favor of the smallest index. The datasets need to contain the same labels in the
+     * same order, for example the same time series augmented by different biases; usually they are the same object.
+     */
+    public int apply(List<String> opts, List<PackedDataset> X) {
+        int numConfigs = opts.size();
+        if (numConfigs == 0 || X.size() != numConfigs) {
+            Msg.error("Error! Incompatible number of configurations (%d) and datasets (%d).", numConfigs, X.size());
+        }
+        int[] y = X.get(0).labels();
+        for (PackedDataset D : X) {
+            if (!Arrays.equals(y, D.labels())) {
+                Msg.error("Error! Datasets of configurations differ in labels.");
+            }
+        }
+        int[][] folds = folds(y);
+
+        // memory budget in MB
+        Runtime rt = Runtime.getRuntime();
+        long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) (memory * free) >> 20));
+        Semaphore permits = new Semaphore(budget);
+        int[] size = new int[numConfigs];
+        for (int c = 0; c < numConfigs; c++) {
+            long bytes = memory(factory.apply(opts.get(c), Rand.newInstance(seed)).getOptions(), X.get(c));
+            size[c] = (int) Math.min(budget, Math.max(1, (bytes + (1 << 20) - 1) >> 20));
+        }
+
+        // trials
+        double[][] err = new double[numConfigs][k];
+        List<Callable<Void>> trials = new ArrayList<>();
+        for (int c = 0; c < numConfigs; c++) {
+            for (int f = 0; f < k; f++) {
+                int cc = c;
+                int ff = f;
+                trials.add(() -> {
+                    ForkJoinPool.managedBlock(new Permits(permits, size[cc]));
+                    try {
+                        err[cc][ff] = trial(opts.get(cc), X.get(cc), folds, ff);
+                    } finally {
+                        permits.release(size[cc]);
+                    }
+                    return null;
+                });
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Parallel.invokeAll(pool, trials);
+        } finally {
+            Parallel.shutdown(pool);
+        }
+
+        // results
+        mean = new double[numConfigs];
+        std = new double[numConfigs];
+        int best = 0;
+        for (int c = 0; c < numConfigs; c++) {
+            for (int f = 0; f < k; f++) {
+                mean[c] += err[c][f] / k;
+            }
+            for (int f = 0; f < k; f++) {
+                std[c] += (err[c][f] - mean[c]) * (err[c][f] - mean[c]) / k;
+            }
+            std[c] = Math.sqrt(std[c]);
+            if (mean[c] < mean[best]) {
+                best = c;
+            }
+            if (0 < verbosity) {
+                System.out.printf("%5d  %7.4f  %7.4f  %s%n", c, 100.0 * mean[c], 100.0 * std[c], opts.get(c));
+            }
+        }
+        return best;
+    }
+
+    public double[] mean() {
+        return mean;
+    }
+
+    public double[] std() {
+        return std;
+    }
+
+    // trains configuration opts on all folds but fold f of X and returns the error on fold f
+    private double trial(String opts, PackedDataset X, int[][] folds, int f) {
+        int n = X.size();
+        int[] train = new int[n - folds[f].length];
+        int size = 0;
+        for (int g = 0; g < k; g++) {
+            if (g != f) {
+                System.arraycopy(folds[g], 0, train, size, folds[g].length);
+                size += folds[g].length;
+            }
+        }
+        Arrays.sort(train);
+        Classifier clf = factory.apply(opts + " -o 0", Rand.newInstance(seed));
+        clf.fit(X.view(train));
+        return clf.eval(X.view(folds[f]));
+    }
+
+    /*
+     * Splits the examples into k folds, such that every fold contains about the same number of examples of every
+     * class. The examples of a class are shuffled and dealt to the folds in turn.
+     */
+    int[][] folds(int[] y) {
+        int n = y.length;
+        int[] labels = Reader.distinct(y);
+        int[] count = new int[labels.length];
+        for (int label : y) {
+            count[Arrays.binarySearch(labels, label)]++;
+        }
+
+        // the first example of a class goes to the fold after the last example of the previous class
+        int[] next = new int[labels.length];
+        for (int c = 0; c < labels.length; c++) {
+            if (count[c] < 2) {
+                Msg.error("Error! Class %d has fewer than 2 examples.", labels[c]);
+            }
+            next[c] = c == 0 ? 0 : (next[c - 1] + count[c - 1]) % k;
+        }
+        int[] size = new int[k];
+        int[] fold = new int[n];
+        for (int i : Rand.newInstance(seed).shuffle(n)) {
+            int c = Arrays.binarySearch(labels, y[i]);
+            fold[i] = next[c];
+            next[c] = (next[c] + 1) % k;
+            size[fold[i]]++;
+        }
+        int[][] folds = new int[k][];
+        for (int f = 0; f < k; f++) {
+            folds[f] = new int[size[f]];
+            size[f] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            folds[fold[i]][size[fold[i]]++] = i;
+        }
+        return folds;
+    }
+
+    /*
+     * Acquires permits of the memory budget. A worker of the pool that waits for permits is managed as blocked, such
+     * that the pool may run another trial meanwhile, e.g. a smaller one that fits into the remaining budget.
+     */
+    private static final class Permits implements ForkJoinPool.ManagedBlocker {
+
+        final Semaphore permits;
+        final int n;
+        boolean acquired;
+
+        Permits(Semaphore permits, int n) {
+            this.permits = permits;
+            this.n = n;
+        }
+
+        @Override
+        public boolean block() {
+            if (!acquired) {
+                permits.acquireUninterruptibly(n);
+                acquired = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return acquired || (acquired = permits.tryAcquire(n));
+        }
+    }
+
+    /*
+     * Returns the estimated number of bytes of a trial: weights, best weights and two moments, two snapshots for
+     * asynchronous evaluation, and a gradient per worker and their sum for mini-batches. A gradient holds a double,
+     * a flag and an index per cell. In single precision, tensors take 4 bytes per cell and a trial holds a copy of
+     * the values of X in single precision.
+     */
+    static long memory(Options opts, PackedDataset X) {
+        long cells = (long) X.numLabels() * Math.max(1, opts.getInt("-e")) * X.maxlength();
+        int B = opts.getInt("-B");
+        int workers = Math.min(opts.getInt("-threads"), 1 < B ? B : X.size());
+        int bytes = opts.getInt("-p") / 8;
+        int tensors = 4 + (opts.getInt("-A") == 1 ? 2 : 0);
+        long gradients = 1 < B ? 13L * (workers + 1) : 0;
+        long series = bytes == 4 ? 4L * X.values().length : 0;
+        return (bytes * tensors + gradients) * cells + series;
+    }
+}
@@ -0,0 +1,122 @@
+package tune;
+
+import util.Msg;
+import util.Rand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * Search space of options. A search space is a string of flag-values pairs of the form
+ *      -flag values
+ * where values is one of
+ *      v1,v2,...,vk    list of values
+ *      lo:hi           values uniformly distributed in [lo, hi]
+ *      lo:hi:log       values log-uniformly distributed in [lo, hi]; 0 < lo
+ * Ranges with integer bounds, e.g. "1:8", are ranges of integers.
+ *
+ * Example: "-e 1,3,5 -l 0.1,0.01 -R 2 -r 1E-4:1E-1:log"
+ *
+ * A configuration is an option string, e.g. "-e 3 -l 0.1 -R 2 -r 0.0013", with the flags in the order of the search
+ * space. A grid search enumerates all combinations of lists, a random search draws every flag independently.
+ */
+public class Space {
+
+    private final List<String> flags = new ArrayList<>();
+    private final List<String[]> lists = new ArrayList<>();     // list of values per flag (null = range)
+    private final List<double[]> ranges = new ArrayList<>();    // lo, hi, log, integer per flag (null = list)
+
+    public Space(String space) {
+        Scanner sc = new Scanner(space);
+        while (sc.hasNext()) {
+            String flag = sc.next();
+            if (flag.length() <= 1 || !flag.startsWith("-") || !sc.hasNext()) {
+                Msg.error("Error! Invalid search space at flag %s.", flag);
+            }
+            String values = sc.next();
+            flags.add(flag);
+            if (values.contains(":")) {
+                String[] r = values.split(":");
+                double lo = Double.parseDouble(r[0]);
+                double hi = r.length < 2 ? lo : Double.parseDouble(r[1]);
+                boolean log = r.length == 3 && r[2].equals("log");
+                if (r.length < 2 || 3 < r.length || (r.length == 3 && !log) || hi < lo || (log && lo <= 0)) {
+                    Msg.error("Error! Invalid range of flag %s: %s.", flag, values);
+                }
+                boolean integer = r[0].matches("-?\\d+") && r[1].matches("-?\\d+");
+                lists.add(null);
+                ranges.add(new double[]{lo, hi, log ? 1 : 0, integer ? 1 : 0});
+            } else {
+                lists.add(values.split(","));
+                ranges.add(null);
+            }
+        }
+    }
+
+    /**
+     * Returns all configurations of a grid search. The last flag varies fastest.
+     */
+    public List<String> grid() {
+        int n = flags.size();
+        long size = 1;
+        for (int i = 0; i < n; i++) {
+            if (lists.get(i) == null) {
+                Msg.error("Error! Grid search requires lists of values: %s.", flags.get(i));
+            }
+            size *= lists.get(i).length;
+        }
+        if (Integer.MAX_VALUE < size) {
+            Msg.error("Error! Grid of %d configurations is too large.", size);
+        }
+        List<String> configs = new ArrayList<>();
+        int[] index = new int[n];
+        for (long c = 0; c < size; c++) {
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < n; i++) {
+                s.append(flags.get(i)).append(' ').append(lists.get(i)[index[i]]).append(' ');
+            }
+            configs.add(s.toString().trim());
+            for (int i = n - 1; 0 <= i; i--) {
+                if (++index[i] < lists.get(i).length) {
+                    break;
+                }
+                index[i] = 0;
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Returns size configurations of a random search drawn by rand.
+     */
+    public List<String> sample(int size, Rand rand) {
+        List<String> configs = new ArrayList<>();
+        for (int c = 0; c < size; c++) {
+            StringBuilder s = new StringBuilder();
+            for (int i = 0; i < flags.size(); i++) {
+                s.append(flags.get(i)).append(' ');
+                String[] list = lists.get(i);
+                if (list != null) {
+                    s.append(list[rand.nextInt(list.length)]);
+                } else {
+                    double[] r = ranges.get(i);
+                    double lo = r[0];
+                    double hi = r[3] == 0 ? r[1] : r[1] + 1;
+                    double u = rand.nextDouble();
+                    double v = r[2] == 0 ? lo + u * (hi - lo)
+                            : Math.exp(Math.log(lo) + u * (Math.log(hi) - Math.log(lo)));
+                    if (r[3] == 0) {
+                        s.append(String.format(Locale.ROOT, "%.4g", v));
+                    } else {
+                        s.append(Math.min((long) r[1], (long) Math.floor(v)));
+                    }
+                }
+                s.append(' ');
+            }
+            configs.add(s.toString().trim());
+        }
+        return configs;
+    }
+}
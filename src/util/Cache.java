@@ -0,0 +1,261 @@
+package util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary cache of datasets read by Reader. The first time a text file is loaded, the relabeled rows are written to the
+ * cache file <file>.cache next to it. Later loads memory-map the cache file and copy the values without parsing. A
+ * cache file is rewritten if size or modification time of the text file differ from those recorded in the cache.
+ *
+ * File format (version 1, little-endian):
+ *      int         magic number "ESMD"
+ *      int         version
+ *      long        size of text file in bytes
+ *      long        modification time of text file in milliseconds
+ *      int         delimiter
+ *      int         n: number of rows
+ *      int[]       labels of size n
+ *      int[]       lengths of size n: number of values of a row without label
+ *      double[]    values of all rows one after another
+ *
+ * Cache files are written to a temporary file and moved into place, such that concurrent runs never read a partly
+ * written cache. If the cache cannot be written, the dataset is returned as read from the text file. Datasets larger
+ * than the heap are converted by create() and read by data.DataStream.
+ */
+public final class Cache {
+
+    public static final String SUFFIX = ".cache";
+    public static final int MAGIC = 0x444D5345;     // "ESMD" in little-endian byte order
+    public static final int VERSION = 1;
+    public static final int HEADER = 32;            // number of bytes of header
+
+    private Cache() {
+    }
+
+    /**
+     * Returns the same rows as Reader.parse(file, delimiter) and reuses or writes the cache file of file.
+     */
+    public static double[][] load(String file, char delimiter) {
+        Path src = Paths.get(file);
+        Path dst = Paths.get(file + SUFFIX);
+        long size;
+        long time;
+        try {
+            size = Files.size(src);
+            time = Files.getLastModifiedTime(src).toMillis();
+        } catch (IOException e) {
+            return Reader.parse(file, delimiter);
+        }
+        Events.Load event = Events.on() ? new Events.Load() : null;
+        double[][] X = read(dst, size, time, delimiter);
+        if (X == null) {
+            X = Reader.parse(file, delimiter);
+            write(dst, X, size, time, delimiter);
+        } else if (event != null) {
+            event.commit(dst.toString(), "cache", X);
+        }
+        return X;
+    }
+
+    /**
+     * Writes the cache file of file unless it is up to date and returns its name. The text file is scanned twice, first
+     * for labels and lengths and then for the values, such that datasets larger than the heap can be converted. The
+     * cache file is the same as the one written by load().
+     */
+    public static String create(String file, char delimiter) {
+        Path src = Paths.get(file);
+        Path dst = Paths.get(file + SUFFIX);
+        long size = 0;
+        long time = 0;
+        try {
+            size = Files.size(src);
+            time = Files.getLastModifiedTime(src).toMillis();
+        } catch (IOException e) {
+            Msg.error("Error! Cannot read %s: %s", file, e.getMessage());
+        }
+        if (valid(dst, size, time, delimiter)) {
+            return dst.toString();
+        }
+
+        // labels and lengths
+        int[][] rows = {new int[1024], new int[1024]};
+        int[] count = {0};
+        Reader.scan(file, delimiter, x -> {
+            int n = count[0];
+            if (n == rows[0].length) {
+                rows[0] = Arrays.copyOf(rows[0], 2 * n);
+                rows[1] = Arrays.copyOf(rows[1], 2 * n);
+            }
+            rows[0][n] = (int) x[0];
+            rows[1][n] = x.length - 1;
+            count[0]++;
+        });
+        int n = count[0];
+        int[] y = Arrays.copyOf(rows[0], n);
+        int[] labels = Reader.distinct(y);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER + 8 * n).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(time).putInt(delimiter).putInt(n);
+        for (int i = 0; i < n; i++) {
+            buf.putInt(Arrays.binarySearch(labels, y[i]));
+        }
+        for (int i = 0; i < n; i++) {
+            buf.putInt(rows[1][i]);
+        }
+        buf.flip();
+
+        // values
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(dst.toAbsolutePath().getParent(), dst.getFileName().toString(), ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                write(ch, buf);
+                ByteBuffer out = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+                Reader.scan(file, delimiter, x -> {
+                    for (int j = 1; j < x.length; j++) {
+                        if (out.remaining() < 8) {
+                            out.flip();
+                            write(ch, out);
+                            out.clear();
+                        }
+                        out.putDouble(x[j]);
+                    }
+                });
+                out.flip();
+                write(ch, out);
+            }
+            Files.move(tmp, dst, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException | UnsupportedOperationException e) {
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+            }
+            Msg.error("Error! Cannot write cache %s: %s", dst, e.getMessage());
+        }
+        return dst.toString();
+    }
+
+    // returns true if the header of the cache file matches the text file
+    private static boolean valid(Path file, long size, long time, char delimiter) {
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (buf.hasRemaining() && 0 <= ch.read(buf)) {
+                continue;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        buf.flip();
+        return buf.remaining() == HEADER && buf.getInt() == MAGIC && buf.getInt() == VERSION
+                && buf.getLong() == size && buf.getLong() == time && buf.getInt() == delimiter;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer buf) {
+        try {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // returns the rows of the cache file or null if the cache is missing, stale, corrupt or too large to be mapped
+    private static double[][] read(Path file, long size, long time, char delimiter) {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        ByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;                                // unreadable or larger than 2 GB: parse the text file
+        }
+        if (buf.remaining() < HEADER || buf.getInt() != MAGIC || buf.getInt() != VERSION
+                || buf.getLong() != size || buf.getLong() != time || buf.getInt() != delimiter) {
+            return null;
+        }
+        int n = buf.getInt();
+        if (n < 0 || buf.remaining() < 8L * n) {
+            return null;
+        }
+        IntBuffer ints = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();    // labels, then lengths
+        long numValues = 0;
+        for (int i = 0; i < n; i++) {
+            int len = ints.get(n + i);
+            if (len < 0) {
+                return null;
+            }
+            numValues += len;
+        }
+        if (buf.capacity() != HEADER + 8L * n + 8L * numValues) {
+            return null;
+        }
+        buf.position(HEADER + 8 * n);
+        DoubleBuffer values = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+        double[][] X = new double[n][];
+        for (int i = 0; i < n; i++) {
+            X[i] = new double[ints.get(n + i) + 1];
+            X[i][0] = ints.get(i);
+            values.get(X[i], 1, X[i].length - 1);
+        }
+        return X;
+    }
+
+    private static void write(Path file, double[][] X, long size, long time, char delimiter) {
+        int n = X.length;
+        long numValues = 0;
+        for (double[] x : X) {
+            numValues += x.length - 1;
+        }
+        long bytes = HEADER + 8L * n + 8L * numValues;
+        if (Integer.MAX_VALUE < bytes) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) bytes).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(time).putInt(delimiter).putInt(n);
+        for (double[] x : X) {
+            buf.putInt((int) x[0]);
+        }
+        for (double[] x : X) {
+            buf.putInt(x.length - 1);
+        }
+        DoubleBuffer values = buf.asDoubleBuffer();
+        for (double[] x : X) {
+            values.put(x, 1, x.length - 1);
+        }
+        buf.rewind();
+        Path tmp = null;
+        try {
+            tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                write(ch, buf);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | UncheckedIOException | UnsupportedOperationException e) {
+            Msg.warn("Warning! Cannot write cache %s: %s", file, e.getMessage());
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package util;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Events of Java Flight Recorder (JFR) in the category "jESMR". Record them with, e.g.,
+ *      java -XX:StartFlightRecording=filename=esmr.jfr ...
+ *      jfr print --categories jESMR esmr.jfr
+ *
+ * Loading an event class registers it with JFR, which takes a few hundred milliseconds. Hence events are only created
+ * once JFR has been started (on() is true), otherwise an event costs one branch. Recordings started later, e.g. by
+ * "jcmd <pid> JFR.start", are picked up by the next event. Duration events start on construction and end in commit().
+ * Their fields are only set in commit() if the event is enabled in a recording. Predictions are sampled: only one in
+ * SAMPLE predictions is timed, and only while the event is enabled.
+ */
+public final class Events {
+
+    public static final int SAMPLE = 64;    // one in SAMPLE predictions is recorded
+
+    private Events() {
+    }
+
+    /**
+     * Returns true if JFR has been started.
+     */
+    public static boolean on() {
+        return FlightRecorder.isInitialized();
+    }
+
+    /**
+     * Returns true if the next prediction is to be recorded.
+     */
+    public static boolean sample() {
+        return on() && PredictionType.TYPE.isEnabled() && ThreadLocalRandom.current().nextInt(SAMPLE) == 0;
+    }
+
+    public static void evaluation(int epoch, double[] err, double[] minErr, boolean full) {
+        if (on()) {
+            new Evaluation().commit(epoch, err, minErr, full);
+        }
+    }
+
+    public static void learningRate(int epoch, double oldRate, double newRate) {
+        if (on()) {
+            new LearningRate().commit(epoch, oldRate, newRate);
+        }
+    }
+
+    @Name("esmr.Epoch")
+    @Label("Training Epoch")
+    @Category("jESMR")
+    @Description("Pass over the training set")
+    public static final class Epoch extends Event {
+
+        @Label("Epoch")
+        private int epoch;
+
+        @Label("Examples")
+        private int examples;
+
+        @Label("Learning Rate")
+        private double learningRate;
+
+        public Epoch() {
+            begin();
+        }
+
+        public void commit(int epoch, int examples, double learningRate) {
+            if (shouldCommit()) {
+                this.epoch = epoch;
+                this.examples = examples;
+                this.learningRate = learningRate;
+                commit();
+            }
+        }
+    }
+
+    @Name("esmr.Evaluation")
+    @Label("Evaluation")
+    @Category("jESMR")
+    @Description("Loss and error of an evaluated epoch logged by the monitor")
+    private static final class Evaluation extends Event {
+
+        @Label("Epoch")
+        private int epoch;
+
+        @Label("Loss")
+        private double loss;
+
+        @Label("Error")
+        @Percentage
+        private double error;
+
+        @Label("Min Loss")
+        private double minLoss;
+
+        @Label("Min Error")
+        @Percentage
+        private double minError;
+
+        @Label("Full")
+        @Description("Evaluated on the full training set")
+        private boolean full;
+
+        void commit(int epoch, double[] err, double[] minErr, boolean full) {
+            if (shouldCommit()) {
+                this.epoch = epoch;
+                this.loss = err[0];
+                this.error = err[1] / 100.0;
+                this.minLoss = minErr[0];
+                this.minError = minErr[1] / 100.0;
+                this.full = full;
+                commit();
+            }
+        }
+    }
+
+    @Name("esmr.LearningRate")
+    @Label("Learning Rate Decrease")
+    @Category("jESMR")
+    @Description("Restart of training with a decreased learning rate")
+    private static final class LearningRate extends Event {
+
+        @Label("Epoch")
+        private int epoch;
+
+        @Label("Old Learning Rate")
+        private double oldRate;
+
+        @Label("New Learning Rate")
+        private double newRate;
+
+        void commit(int epoch, double oldRate, double newRate) {
+            if (shouldCommit()) {
+                this.epoch = epoch;
+                this.oldRate = oldRate;
+                this.newRate = newRate;
+                commit();
+            }
+        }
+    }
+
+    @Name("esmr.Snapshot")
+    @Label("Best Weights Snapshot")
+    @Category("jESMR")
+    @Description("Copy of the weights of an improved epoch")
+    public static final class Snapshot extends Event {
+
+        @Label("Epoch")
+        private int epoch;
+
+        @Label("Size")
+        @DataAmount
+        private long bytes;
+
+        public Snapshot() {
+            begin();
+        }
+
+        public void commit(int epoch, Tensor W) {
+            if (shouldCommit()) {
+                this.epoch = epoch;
+                this.bytes = (W.isSingle() ? 4L : 8L) * W.size();
+                commit();
+            }
+        }
+    }
+
+    @Name("esmr.Load")
+    @Label("Dataset Load")
+    @Category("jESMR")
+    @Description("Dataset read from a text or cache file")
+    public static final class Load extends Event {
+
+        @Label("File")
+        private String file;
+
+        @Label("Method")
+        private String method;
+
+        @Label("Rows")
+        private int rows;
+
+        public Load() {
+            begin();
+        }
+
+        public void commit(String file, String method, double[][] X) {
+            if (shouldCommit()) {
+                this.file = file;
+                this.method = method;
+                this.rows = X == null ? 0 : X.length;
+                commit();
+            }
+        }
+    }
+
+    @Name("esmr.Prediction")
+    @Label("Prediction")
+    @Category("jESMR")
+    @Description("Latency of a sampled prediction")
+    public static final class Prediction extends Event {
+
+        @Label("Classifier")
+        private String classifier;
+
+        @Label("Length")
+        private int length;
+
+        @Label("Label")
+        private int label;
+
+        public Prediction() {
+            begin();
+        }
+
+        public void commit(String classifier, int length, int label) {
+            if (shouldCommit()) {
+                this.classifier = classifier;
+                this.length = length;
+                this.label = label;
+                commit();
+            }
+        }
+    }
+
+    // type of prediction events, looked up once JFR has been started
+    private static final class PredictionType {
+        static final EventType TYPE = EventType.getEventType(Prediction.class);
+    }
+}
@@ -0,0 +1,49 @@
+package util;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+public final class Parallel {
+
+    private Parallel() { }
+
+    /**
+     * Returns a fork-join pool with the specified number of threads or null if threads <= 1.
+     */
+    public static ForkJoinPool pool(int threads) {
+        return threads <= 1 ? null : new ForkJoinPool(threads);
+    }
+
+    public static void shutdown(ForkJoinPool pool) {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Runs all tasks and waits until they are done. Tasks are run in order on the calling thread if pool is null.
+     */
+    public static <T> void invokeAll(ForkJoinPool pool, List<? extends Callable<T>> tasks) {
+        try {
+            if (pool == null) {
+                for (Callable<T> task : tasks) {
+                    task.call();
+                }
+                return;
+            }
+            for (Future<T> f : pool.invokeAll(tasks)) {
+                f.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package util;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 
 public class Rand extends Random {
@@ -22,8 +25,23 @@ public class Rand extends Random {
         RND = new Rand(SEED);
     }
 
+    /**
+     * Returns a new generator with the given seed, e.g. for reproducible runs on concurrent threads. The shared
+     * instance is not changed.
+     */
+    public static Rand newInstance(int seed) {
+        return new Rand(seed);
+    }
+
     public int[] shuffle(int n) {
-        int[] x = new int[n];
+        return shuffle(new int[n]);
+    }
+
+    /**
+     * Fills x with a random permutation of 0,...,x.length-1 and returns x. Draws the same permutation as shuffle(n).
+     */
+    public int[] shuffle(int[] x) {
+        int n = x.length;
         for (int i = 0; i < n; i++) {
             x[i] = i;
         }
@@ -36,15 +54,44 @@ public class Rand extends Random {
         return x;
     }
 
-    public double[][][] nextArray(int p, int q, int r, double beta) {
-        double[][][] x = new double[p][q][r];
-        for (int i = 0; i < p; i++) {
-            for (int j = 0; j < q; j++) {
-                for (int k = 0; k < r; k++) {
-                    x[i][j][k] = nextGaussian() / beta;
-                }
+    /**
+     * Returns a random sample of the indices of the labels y in ascending order. The sample contains the given fraction
+     * of the indices of each label, but at least one index per label.
+     */
+    public int[] stratified(int[] y, double fraction) {
+        int n = y.length;
+        Map<Integer, int[]> counts = new HashMap<>();
+        for (int label : y) {
+            counts.computeIfAbsent(label, k -> new int[2])[0]++;
+        }
+        int[] sample = new int[n];
+        int size = 0;
+        for (int i : shuffle(n)) {
+            int[] c = counts.get(y[i]);
+            if (c[1] < Math.max(1, Math.round(fraction * c[0]))) {
+                c[1]++;
+                sample[size++] = i;
             }
         }
+        sample = Arrays.copyOf(sample, size);
+        Arrays.sort(sample);
+        return sample;
+    }
+
+    public Tensor nextTensor(int p, int q, int r, double beta) {
+        return nextTensor(p, q, r, beta, false);
+    }
+
+    /**
+     * Returns a tensor of Gaussian values with standard deviation 1 / beta in single precision if single is true. Both
+     * precisions draw the same values.
+     */
+    public Tensor nextTensor(int p, int q, int r, double beta, boolean single) {
+        Tensor x = new Tensor(p, q, r, single);
+        int n = x.size();
+        for (int i = 0; i < n; i++) {
+            x.set(i, nextGaussian() / beta);
+        }
         return x;
     }
 }
@@ -3,10 +3,24 @@ package util;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 public class Reader {
 
+    private static final int CHUNK = 1 << 23;          // nominal number of bytes of a chunk parsed by one task
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
     /**
      * Reads delimiter separated values of the specified file. The regular expression regexp specifies the delimiter.
      * The method returns a double[][] array, where each line of the file corresponds to a row of the matrix.
@@ -22,6 +36,7 @@ public class Reader {
      * @return double[][] array of values
      */
     public static double[][] load(String file, String regexp) {
+        Events.Load event = Events.on() ? new Events.Load() : null;
         BufferedReader br = null;
         String line;
 
@@ -42,39 +57,291 @@ public class Reader {
         } finally {
             finalize(br);
         }
-        return transform(X);
+        double[][] Y = transform(X);
+        if (event != null) {
+            event.commit(file, "regex", Y);
+        }
+        return Y;
     }
 
     public static double[][] loadSSV(String filename) {
-        return load(filename, "\\s+");
+        return parse(filename, ' ');
     }
 
     public static double[][] loadCSV(String filename) {
-        return load(filename, ",");
+        return parse(filename, ',');
+    }
+
+    /**
+     * Reads the same values as load() for the delimiter "," (delimiter = ',') or "\\s+" (delimiter = ' ') without
+     * regular expressions. The file is split into chunks of lines, which are memory-mapped, copied in one bulk read
+     * and parsed in parallel.
+     * Numbers with at most 15 significant digits and a decimal exponent of at most 22 in absolute value are converted
+     * exactly in double arithmetic, all others by Double.parseDouble(). Values are the same as those of load().
+     *
+     * @param file      name of file
+     * @param delimiter ',' for comma separated values, ' ' for values separated by white space
+     * @return double[][] array of values
+     */
+    public static double[][] parse(String file, char delimiter) {
+        Events.Load event = Events.on() ? new Events.Load() : null;
+        ArrayList<double[]> X = new ArrayList<>();
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long[] bounds = chunks(ch);
+            int numChunks = bounds.length - 1;
+            List<List<double[]>> rows = new ArrayList<>(Collections.nCopies(numChunks, null));
+            IntStream.range(0, numChunks).parallel().forEach(k -> {
+                try {
+                    long from = bounds[k];
+                    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, from, bounds[k + 1] - from);
+                    byte[] b = new byte[buf.remaining()];
+                    buf.get(b);
+                    rows.set(k, parse(b, (byte) delimiter));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            for (List<double[]> chunk : rows) {
+                X.addAll(chunk);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        double[][] Y = transform(X);
+        if (event != null) {
+            event.commit(file, "parse", Y);
+        }
+        return Y;
+    }
+
+    /**
+     * Parses the file chunk by chunk as parse() and passes the rows to rows in the order of the file. Labels are not
+     * relabeled. Only one chunk is held in memory at a time, such that files larger than the heap can be scanned.
+     *
+     * @param file      name of file
+     * @param delimiter ',' for comma separated values, ' ' for values separated by white space
+     * @param rows      consumer of rows
+     */
+    public static void scan(String file, char delimiter, Consumer<double[]> rows) {
+        try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            long[] bounds = chunks(ch);
+            for (int k = 0; k + 1 < bounds.length; k++) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, bounds[k], bounds[k + 1] - bounds[k]);
+                byte[] b = new byte[buf.remaining()];
+                buf.get(b);
+                parse(b, (byte) delimiter).forEach(rows);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the distinct labels of y in ascending order. The readers relabel a label by its index in this array.
+     */
+    public static int[] distinct(int[] y) {
+        int[] labels = y.clone();
+        Arrays.sort(labels);
+        int numLabels = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (i == 0 || labels[i - 1] != labels[i]) {
+                labels[numLabels++] = labels[i];
+            }
+        }
+        return Arrays.copyOf(labels, numLabels);
     }
 
     private static double[][] transform(ArrayList<double[]> X) {
         int n = X.size();
         double[][] data = new double[n][];
-        HashSet<Integer> labels = new HashSet<>();
+        int[] y = new int[n];
         for (int i = 0; i < n; i++) {
             data[i] = X.get(i);
-            labels.add((int) data[i][0]);
-        }
-        // relabel
-        List<Integer> sortedLabels = new ArrayList<>(labels);
-        Collections.sort(sortedLabels);
-        int numLabels = sortedLabels.size();
-        HashMap<Integer, Integer> map = new HashMap<>();
-        for (int i = 0; i < numLabels; i++) {
-            map.put(sortedLabels.get(i), i);
+            y[i] = (int) data[i][0];
         }
+        // relabel by rank of label among the distinct sorted labels
+        int[] labels = distinct(y);
         for (int i = 0; i < n; i++) {
-            data[i][0] = map.get((int) data[i][0]);
+            data[i][0] = Arrays.binarySearch(labels, y[i]);
         }
         return data;
     }
 
+    // returns the offsets of chunks of about CHUNK bytes that start at the beginning of a line
+    private static long[] chunks(FileChannel ch) throws IOException {
+        long size = ch.size();
+        ArrayList<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long pos = CHUNK;
+        while (pos < size) {
+            // move pos behind the next line break
+            boolean found = false;
+            while (!found && pos < size) {
+                buf.clear();
+                int len = ch.read(buf, pos);
+                if (len <= 0) {
+                    break;
+                }
+                for (int i = 0; i < len; i++) {
+                    if (buf.get(i) == '\n') {
+                        pos += i + 1;
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    pos += len;
+                }
+            }
+            if (pos < size) {
+                bounds.add(pos);
+            }
+            pos += CHUNK;
+        }
+        bounds.add(size);
+        long[] b = new long[bounds.size()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = bounds.get(i);
+        }
+        return b;
+    }
+
+    // parses the lines of a chunk
+    private static List<double[]> parse(byte[] buf, byte delimiter) {
+        ArrayList<double[]> X = new ArrayList<>();
+        double[] x = new double[256];
+        int end = buf.length;
+        int pos = 0;
+        while (pos < end) {
+            // line
+            int next = pos;
+            while (next < end && buf[next] != '\n' && buf[next] != '\r') {
+                next++;
+            }
+            int n = 0;
+            int countDoubles = 0;
+            int i = skip(buf, pos, next);
+            while (i < next) {
+                // token
+                int j = i;
+                while (j < next && buf[j] != delimiter && !space(buf[j])) {
+                    j++;
+                }
+                int k = skip(buf, j, next);
+                if (delimiter != ' ' && k < next) {
+                    if (buf[k] != delimiter) {
+                        throw new NumberFormatException(string(buf, i, k));
+                    }
+                    k = skip(buf, k + 1, next);
+                }
+                if (j == i) {
+                    // empty token: trailing delimiters are ignored as by String.split()
+                    if (trailing(buf, i, next, delimiter)) {
+                        break;
+                    }
+                    throw new NumberFormatException("empty String");
+                }
+                if (n == x.length) {
+                    x = Arrays.copyOf(x, 2 * n);
+                }
+                x[n] = parse(buf, i, j);
+                if (!Double.isNaN(x[n])) {
+                    countDoubles++;
+                }
+                n++;
+                i = k;
+            }
+            if (0 < n) {
+                X.add(Arrays.copyOf(x, countDoubles < n ? countDoubles : n));
+            }
+            pos = next + 1;
+        }
+        return X;
+    }
+
+    // parses bytes from,...,to-1 of buf as a double
+    private static double parse(byte[] buf, int from, int to) {
+        int i = from;
+        boolean neg = false;
+        byte c = buf[i];
+        if (c == '-' || c == '+') {
+            neg = c == '-';
+            i++;
+        }
+        long mant = 0;
+        int digits = 0;
+        int exp = 0;
+        boolean any = false;
+        boolean point = false;
+        for (; i < to; i++) {
+            c = buf[i];
+            if ('0' <= c && c <= '9') {
+                any = true;
+                if (mant != 0 || c != '0') {
+                    digits++;
+                }
+                if (digits <= 18) {
+                    mant = 10 * mant + (c - '0');
+                    exp -= point ? 1 : 0;
+                } else {
+                    exp += point ? 0 : 1;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (any && i < to && (buf[i] == 'e' || buf[i] == 'E')) {
+            i++;
+            boolean negExp = false;
+            if (i < to && (buf[i] == '-' || buf[i] == '+')) {
+                negExp = buf[i] == '-';
+                i++;
+            }
+            int e = 0;
+            int start = i;
+            for (; i < to && '0' <= buf[i] && buf[i] <= '9' && e < 100000; i++) {
+                e = 10 * e + (buf[i] - '0');
+            }
+            any = start < i;
+            exp += negExp ? -e : e;
+        }
+        if (!any || i != to || 15 < digits || exp < -22 || 22 < exp) {
+            return Double.parseDouble(string(buf, from, to));
+        }
+        double val = exp < 0 ? mant / POW10[-exp] : mant * POW10[exp];
+        return neg ? -val : val;
+    }
+
+    // returns the first position at or after i that is not white space
+    private static int skip(byte[] buf, int i, int end) {
+        while (i < end && space(buf[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    // returns true if positions i,...,end-1 only contain delimiters and white space
+    private static boolean trailing(byte[] buf, int i, int end, byte delimiter) {
+        for (; i < end; i++) {
+            if (buf[i] != delimiter && !space(buf[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // white space as removed by String.trim()
+    private static boolean space(byte c) {
+        return 0 <= c && c <= ' ';
+    }
+
+    private static String string(byte[] buf, int from, int to) {
+        return new String(buf, from, to - from, StandardCharsets.UTF_8);
+    }
+
     private static double[] toDouble(String[] vals) {
         int n = vals.length;
         double[] x = new double[n];
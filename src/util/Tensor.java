@@ -0,0 +1,131 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Tensor of size d0 x d1 x d2 stored in a single contiguous array. Cell (i, r, s) has index (i * d1 + r) * d2 + s,
+ * that is, row r of slice i starts at index(i, r) and slice i starts at offset(i).
+ *
+ * The values are stored either in double precision (data) or in single precision (fdata); the other array is null.
+ */
+public final class Tensor {
+
+    public final int d0;
+    public final int d1;
+    public final int d2;
+    public final double[] data;         // values in double precision (null = single precision)
+    public final float[] fdata;         // values in single precision (null = double precision)
+
+    public Tensor(int d0, int d1, int d2) {
+        this(d0, d1, d2, false);
+    }
+
+    /**
+     * Creates a tensor of zeros in single precision if single is true and in double precision otherwise.
+     */
+    public Tensor(int d0, int d1, int d2, boolean single) {
+        this.d0 = d0;
+        this.d1 = d1;
+        this.d2 = d2;
+        data = single ? null : new double[d0 * d1 * d2];
+        fdata = single ? new float[d0 * d1 * d2] : null;
+    }
+
+    public boolean isSingle() {
+        return fdata != null;
+    }
+
+    public int size() {
+        return d0 * d1 * d2;
+    }
+
+    public int offset(int i) {
+        return i * d1 * d2;
+    }
+
+    public int index(int i, int r) {
+        return (i * d1 + r) * d2;
+    }
+
+    public double get(int i, int r, int s) {
+        return get((i * d1 + r) * d2 + s);
+    }
+
+    public void set(int i, int r, int s, double val) {
+        set((i * d1 + r) * d2 + s, val);
+    }
+
+    /**
+     * Returns the value of the cell with index k.
+     */
+    public double get(int k) {
+        return data == null ? fdata[k] : data[k];
+    }
+
+    /**
+     * Sets the value of the cell with index k, rounded to single precision if the tensor is stored in single
+     * precision.
+     */
+    public void set(int k, double val) {
+        if (data == null) {
+            fdata[k] = (float) val;
+        } else {
+            data[k] = val;
+        }
+    }
+
+    /**
+     * Returns a copy in the same precision.
+     */
+    public Tensor copy() {
+        Tensor t = new Tensor(d0, d1, d2, isSingle());
+        t.copy(this);
+        return t;
+    }
+
+    /**
+     * Overwrites this tensor with the values of t of the same size. Values are rounded if this tensor is stored in
+     * single precision and t is not.
+     */
+    public void copy(Tensor t) {
+        if (data != null && t.data != null) {
+            System.arraycopy(t.data, 0, data, 0, data.length);
+        } else if (fdata != null && t.fdata != null) {
+            System.arraycopy(t.fdata, 0, fdata, 0, fdata.length);
+        } else {
+            for (int k = 0, n = size(); k < n; k++) {
+                set(k, t.get(k));
+            }
+        }
+    }
+
+    /**
+     * Sets all values to zero.
+     */
+    public void clear() {
+        if (data == null) {
+            Arrays.fill(fdata, 0);
+        } else {
+            Arrays.fill(data, 0);
+        }
+    }
+
+    /**
+     * Writes the values of this tensor rounded to single precision into f and returns f. A new array is allocated if f
+     * is null or has a different length.
+     */
+    public float[] toFloat(float[] f) {
+        int n = size();
+        if (f == null || f.length != n) {
+            f = new float[n];
+        }
+        if (data == null) {
+            System.arraycopy(fdata, 0, f, 0, n);
+            return f;
+        }
+        for (int k = 0; k < n; k++) {
+            f[k] = (float) data[k];
+        }
+        return f;
+    }
+}